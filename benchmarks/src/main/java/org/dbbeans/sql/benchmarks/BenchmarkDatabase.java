@@ -0,0 +1,83 @@
+package org.dbbeans.sql.benchmarks;
+
+import org.dbbeans.sql.DB;
+import org.dbbeans.sql.DBAccess;
+import org.dbbeans.sql.DBFromJDBCDriver;
+import org.dbbeans.sql.DBPooled;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared benchmark state: an in-memory H2 database containing an ITEM table with {@link BenchmarkDatabase#ROWS} rows.
+ *
+ * The connectionSource parameter selects how connections are obtained: straight from the JDBC driver, from a
+ * {@link DBPooled} pool, or from a pool with statement caching enabled.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    public static final int ROWS = 10_000;
+
+    private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+    @Param({ "driver", "pooled", "pooled-cached" })
+    public String connectionSource;
+
+    public DB db;
+    public DBAccess dbAccess;
+
+    private DBPooled pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DB driver = new DBFromJDBCDriver(
+                "org.h2.Driver",
+                "jdbc:h2:mem:bench" + DATABASE_COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1",
+                "sa",
+                "");
+
+        switch (connectionSource) {
+            case "driver":
+                db = driver;
+                break;
+            case "pooled":
+                pool = DBPooled.builder(driver).maxSize(64).build();
+                db = pool;
+                break;
+            case "pooled-cached":
+                pool = DBPooled.builder(driver).maxSize(64).statementCacheSize(32).build();
+                db = pool;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown connection source: " + connectionSource);
+        }
+
+        dbAccess = new DBAccess(db);
+        dbAccess.processUpdate(
+                "CREATE TABLE item (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(64) NOT NULL, amount INT NOT NULL)",
+                stat -> { });
+        dbAccess.processUpdates("INSERT INTO item (name, amount) VALUES (?, ?)", stat -> {
+            for (int i = 1; i <= ROWS; ++i) {
+                stat.setString(1, "item" + i);
+                stat.setInt(2, i);
+                stat.addBatch();
+                if (i % 1000 == 0)
+                    stat.executeBatch();
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dbAccess.processUpdate("DROP ALL OBJECTS", stat -> { });
+        if (pool != null)
+            pool.close();
+    }
+}
@@ -0,0 +1,45 @@
+package org.dbbeans.sql.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each requested thread count, with the GC profiler enabled to report allocation per operation.
+ *
+ * Usage: java -jar target/benchmarks.jar [threadCounts] [JMH options]
+ * where threadCounts is a comma separated list of thread counts (default 1,2,4,8). Other arguments are regular JMH
+ * command line options, for instance a benchmark name pattern or -p connectionSource=pooled.
+ * Results are written in JSON format to target/jmh-result-[threads]-threads.json.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        String threadCounts = "1,2,4,8";
+        if (args.length > 0 && args[0].matches("\\d+(,\\d+)*")) {
+            threadCounts = args[0];
+            String[] remaining = new String[args.length - 1];
+            System.arraycopy(args, 1, remaining, 0, remaining.length);
+            args = remaining;
+        }
+
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount);
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-result-" + threads + "-threads.json");
+            if (commandLineOptions.getIncludes().isEmpty())
+                options.include("org\\.dbbeans\\.sql\\.benchmarks\\..*");
+            new Runner(options.build()).run();
+        }
+    }
+}
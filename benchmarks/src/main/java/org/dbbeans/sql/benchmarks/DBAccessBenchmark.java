@@ -0,0 +1,113 @@
+package org.dbbeans.sql.benchmarks;
+
+import org.dbbeans.sql.DBTransaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per-call overhead of the {@link org.dbbeans.sql.DBAccess} and {@link DBTransaction} hot paths.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DBAccessBenchmark {
+
+    private static final int LOOP_SIZE = 10;
+    private static final List<Integer> BATCH_ITEMS = Collections.nCopies(LOOP_SIZE, 0);
+
+    private static long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, BenchmarkDatabase.ROWS + 1);
+    }
+
+    @Benchmark
+    public String singleRowLookup(BenchmarkDatabase database) {
+        return database.dbAccess.processQuery(
+                "SELECT name FROM item WHERE id = ?",
+                stat -> stat.setLong(1, randomId()),
+                rs -> rs.next() ? rs.getString(1) : null);
+    }
+
+    @Benchmark
+    public long createRecord(BenchmarkDatabase database) {
+        return database.dbAccess.createRecord(
+                "INSERT INTO item (name, amount) VALUES (?, ?)",
+                stat -> {
+                    stat.setString(1, "created");
+                    stat.setInt(2, 0);
+                });
+    }
+
+    @Benchmark
+    public long[] createRecordsBatch(BenchmarkDatabase database) {
+        return database.dbAccess.createRecords(
+                "INSERT INTO item (name, amount) VALUES (?, ?)",
+                BATCH_ITEMS,
+                (stat, amount) -> {
+                    stat.setString(1, "created");
+                    stat.setInt(2, amount);
+                },
+                LOOP_SIZE);
+    }
+
+    @Benchmark
+    public void processUpdatesLoop(BenchmarkDatabase database) {
+        database.dbAccess.processUpdates("UPDATE item SET amount = amount + 1 WHERE id = ?", stat -> {
+            for (int i = 0; i < LOOP_SIZE; ++i) {
+                stat.setLong(1, randomId());
+                stat.executeUpdate();
+            }
+        });
+    }
+
+    @Benchmark
+    public long processQueriesReuse(BenchmarkDatabase database) {
+        return database.dbAccess.processQueries("SELECT amount FROM item WHERE id = ?", stat -> {
+            long sum = 0;
+            for (int i = 0; i < LOOP_SIZE; ++i) {
+                stat.setLong(1, randomId());
+                try (var rs = stat.executeQuery()) {
+                    if (rs.next())
+                        sum += rs.getInt(1);
+                }
+            }
+            return sum;
+        });
+    }
+
+    @Benchmark
+    public int transactionCommit(BenchmarkDatabase database) {
+        // rows are always updated in ascending id order so that concurrent transactions cannot deadlock
+        long firstId = randomId();
+        long secondId = randomId();
+        try (DBTransaction transaction = new DBTransaction(database.db)) {
+            int count = transaction.addUpdate(
+                    "UPDATE item SET amount = amount - 1 WHERE id = ?",
+                    stat -> stat.setLong(1, Math.min(firstId, secondId)));
+            count += transaction.addUpdate(
+                    "UPDATE item SET amount = amount + 1 WHERE id = ?",
+                    stat -> stat.setLong(1, Math.max(firstId, secondId)));
+            count += transaction.addQuery(
+                    "SELECT COUNT(*) FROM item WHERE amount < ?",
+                    stat -> stat.setInt(1, 100),
+                    rs -> rs.next() ? rs.getInt(1) : 0);
+            transaction.commit();
+            return count;
+        }
+    }
+}
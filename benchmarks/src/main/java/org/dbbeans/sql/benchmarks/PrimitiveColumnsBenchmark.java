@@ -0,0 +1,91 @@
+package org.dbbeans.sql.benchmarks;
+
+import org.dbbeans.sql.DBAccess;
+import org.dbbeans.sql.DBFromJDBCDriver;
+import org.dbbeans.sql.DBLongLongMap;
+import org.dbbeans.sql.DBPooled;
+import org.dbbeans.sql.DBPrimitiveColumns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares boxed and primitive retrieval of a 1M-row ID scan. Run with the GC profiler (as {@link BenchmarkRunner}
+ * does) and compare gc.alloc.rate.norm, the number of bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimitiveColumnsBenchmark {
+
+    public static final int ROWS = 1_000_000;
+
+    private DBPooled pool;
+    private DBAccess dbAccess;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = DBPooled.builder(new DBFromJDBCDriver("org.h2.Driver", "jdbc:h2:mem:primitives;DB_CLOSE_DELAY=-1", "sa", ""))
+                .maxSize(16)
+                .build();
+        dbAccess = new DBAccess(pool);
+        dbAccess.processUpdate(
+                "CREATE TABLE scan (id BIGINT PRIMARY KEY, amount BIGINT NOT NULL) AS SELECT X, X * 2 FROM SYSTEM_RANGE(1, " + ROWS + ")",
+                stat -> { });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dbAccess.processUpdate("DROP ALL OBJECTS", stat -> { });
+        pool.close();
+    }
+
+    @Benchmark
+    public List<Long> idsBoxedList() {
+        return dbAccess.processQuery("SELECT id FROM scan", rs -> {
+            List<Long> ids = new ArrayList<>();
+            while (rs.next())
+                ids.add(rs.getLong(1));
+            return ids;
+        });
+    }
+
+    @Benchmark
+    public long[] idsPrimitiveArray() {
+        return dbAccess.processQuery("SELECT id FROM scan", DBPrimitiveColumns.longs());
+    }
+
+    @Benchmark
+    public Map<Long, Long> idMapBoxed() {
+        return dbAccess.processQuery("SELECT id, amount FROM scan", rs -> {
+            Map<Long, Long> amounts = new HashMap<>();
+            while (rs.next())
+                amounts.put(rs.getLong(1), rs.getLong(2));
+            return amounts;
+        });
+    }
+
+    @Benchmark
+    public DBLongLongMap idMapPrimitive() {
+        return dbAccess.processQuery("SELECT id, amount FROM scan", DBPrimitiveColumns.longLongMap(1, 2));
+    }
+}
@@ -15,4 +15,13 @@ public interface DB {
      * @return a Connection from the database. The user is responsible for closing the connection.
      */
     public Connection getConnection() throws SQLException;
+
+    /**
+     * Returns a connection for work that does not modify the database, like the queries of {@link DBAccess}.
+     * Implementations may return a connection to a read replica, see {@link DBReplicated}.
+     * @return a Connection from the database, the same as getConnection() by default. The user is responsible for closing the connection.
+     */
+    public default Connection getReadConnection() throws SQLException {
+        return getConnection();
+    }
 }
@@ -3,18 +3,71 @@ package org.dbbeans.sql;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import java.util.stream.Stream;
+
 /**
  * This class is used to encapsulate JDBC database access.
  */
 public class DBAccess {
 
+    /**
+     * Fetch size used by the stream methods when none is specified.
+     */
+    public static final int DEFAULT_STREAM_FETCH_SIZE = 1000;
+
     private final DB db;
+    private final DBQueryOptions options;
 
     /**
      * @param db a {@link DB} object to obtain connections to the database.
      */
     public DBAccess(DB db) {
+        this(db, DBQueryOptions.DEFAULT);
+    }
+
+    /**
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+     */
+    public DBAccess(DB db, DBQueryOptions options) {
         this.db = db;
+        this.options = options;
+    }
+
+    /**
+     * Use this method to apply options to one or more calls, without changing the options of this instance.
+     * For example: dbAccess.withOptions(largeResultOptions).processQuery(...).
+     * @param options a {@link DBQueryOptions} object, containing the options to apply.
+     * @return a DBAccess using the same {@link DB} and the specified options.
+     */
+    public DBAccess withOptions(DBQueryOptions options) {
+        return new DBAccess(db, options);
+    }
+
+    /**
+     * @return the {@link DBQueryOptions} applied to every statement.
+     */
+    public DBQueryOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Use this method to run several operations on a single connection, for example:
+     * try (DBSession session = dbAccess.openSession()) { ... }.
+     * @return a new {@link DBSession} using the same {@link DB} and options.
+     */
+    public DBSession openSession() {
+        return new DBSession(db, options);
+    }
+
+    /**
+     * Obtains the connection used by an operation. Override this method to change how connections are obtained.
+     * @param read true for queries, which may use {@link DB#getReadConnection()}; false for updates.
+     * @return a Connection, closed by the caller.
+     * @throws SQLException if a database error occurs
+     */
+    protected Connection getConnection(boolean read) throws SQLException {
+        return DBInstrumentation.getConnection(db, read);
     }
 
     /**
@@ -31,11 +84,11 @@ public class DBAccess {
 
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            count = DBUtils.processUpdate(conn, query, querySetup);
+            conn = getConnection(false);
+            count = DBUtils.processUpdate(conn, options, query, querySetup);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -58,11 +111,11 @@ public class DBAccess {
 
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            id = DBUtils.createRecord(conn, query, querySetup);
+            conn = getConnection(false);
+            id = DBUtils.createRecord(conn, options, query, querySetup);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -81,11 +134,11 @@ public class DBAccess {
     public void processQuery(String query, DBQuerySetup querySetup, DBQueryProcess queryProcess) {
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            DBUtils.processQuery(conn, query, querySetup, queryProcess);
+            conn = getConnection(true);
+            DBUtils.processQuery(conn, options, query, querySetup, queryProcess);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -100,11 +153,11 @@ public class DBAccess {
     public void processQuery(String query, DBQueryProcess queryProcess) {
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            DBUtils.processQuery(conn, query, queryProcess);
+            conn = getConnection(true);
+            DBUtils.processQuery(conn, options, query, queryProcess);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -124,11 +177,11 @@ public class DBAccess {
 
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            data = DBUtils.processQuery(conn, query, querySetup, queryRetrieveData);
+            conn = getConnection(true);
+            data = DBUtils.processQuery(conn, options, query, querySetup, queryRetrieveData);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -149,11 +202,11 @@ public class DBAccess {
 
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            data = DBUtils.processQuery(conn, query, retrieveData);
+            conn = getConnection(true);
+            data = DBUtils.processQuery(conn, options, query, retrieveData);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -169,11 +222,11 @@ public class DBAccess {
     public void processUpdates(String query, DBUpdates updates) {
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            DBUtils.processUpdates(conn, query, updates);
+            conn = getConnection(false);
+            DBUtils.processUpdates(conn, options, query, updates);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -181,6 +234,7 @@ public class DBAccess {
 
     /**
      * Use this method to process multiple queries on the database and retrieve their result.
+     * Unless the SQL code is a SELECT query, it may update the database and runs on a connection obtained for updates.
      * @param query SQL query.
      * @param queries an object implementing the {@link DBQueries} interface, used to process the queries result.
      * @param <T> type of queries result.
@@ -192,11 +246,11 @@ public class DBAccess {
 
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            data = DBUtils.processQueries(conn, query, queries);
+            conn = getConnection(DBQueryCache.isQuery(query));
+            data = DBUtils.processQueries(conn, options, query, queries);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
@@ -206,6 +260,7 @@ public class DBAccess {
 
     /**
      * Use this method to process multiple queries on the database without returning results to the caller.
+     * Unless the SQL code is a SELECT query, it may update the database and runs on a connection obtained for updates.
      * @param query SQL query.
      * @param queries an object implementing the {@link DBQueriesNoReturn} interface, used to process the queries result.
      * @see  DBAccess#processQueries(String, DBQueries)
@@ -213,13 +268,266 @@ public class DBAccess {
     public void processQueries(String query, DBQueriesNoReturn queries) {
         Connection conn = null;
         try {
-            conn = db.getConnection();
-            DBUtils.processQueries(conn, query, queries);
+            conn = getConnection(DBQueryCache.isQuery(query));
+            DBUtils.processQueries(conn, options, query, queries);
             conn.close();
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
             DBUtils.connectionSilentClose(conn);
         }
     }
+
+    /**
+     * Use this method to apply the same update to many items using JDBC batches.
+     * The updates are not processed as a single transaction; use {@link DBTransaction#addBatch(String, Iterable, DBBatchSetup, int)}
+     * if all updates must succeed or fail together.
+     * @param query SQL query.
+     * @param items the items to be processed, one update per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters for each item.
+     * @param batchSize maximum number of updates sent to the database at once.
+     * @param <T> type of the items.
+     * @return the number of database rows affected by each update, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#processBatch(String, Stream, DBBatchSetup, int)
+     */
+    public <T> int[] processBatch(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        int[] counts;
+
+        Connection conn = null;
+        try {
+            conn = getConnection(false);
+            counts = DBUtils.processBatch(conn, options, query, items, batchSetup, batchSize);
+            conn.close();
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        } finally {
+            DBUtils.connectionSilentClose(conn);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Use this method to apply the same update to many items using JDBC batches.
+     * @param query SQL query.
+     * @param items the items to be processed, one update per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters for each item.
+     * @param batchSize maximum number of updates sent to the database at once.
+     * @param <T> type of the items.
+     * @return the number of database rows affected by each update, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#processBatch(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> int[] processBatch(String query, Stream<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        return processBatch(query, (Iterable<T>) items::iterator, batchSetup, batchSize);
+    }
+
+    /**
+     * Use this method to insert many new rows in the database using JDBC batches and obtain their IDs.
+     * The JDBC driver must support retrieving generated keys after a batch update.
+     * @param query SQL query used to insert a row.
+     * @param items the items to be inserted, one row per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the data used in the query for each item.
+     * @param batchSize maximum number of rows sent to the database at once.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if an insert does not affect exactly one row or if the driver does not return one id per row.
+     * @see DBAccess#createRecords(String, Stream, DBBatchSetup, int)
+     */
+    public <T> long[] createRecords(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        long[] ids;
+
+        Connection conn = null;
+        try {
+            conn = getConnection(false);
+            ids = DBUtils.createRecords(conn, options, query, items, batchSetup, batchSize);
+            conn.close();
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        } finally {
+            DBUtils.connectionSilentClose(conn);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Use this method to insert many new rows in the database using JDBC batches and obtain their IDs.
+     * @param query SQL query used to insert a row.
+     * @param items the items to be inserted, one row per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the data used in the query for each item.
+     * @param batchSize maximum number of rows sent to the database at once.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if an insert does not affect exactly one row or if the driver does not return one id per row.
+     * @see DBAccess#createRecords(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long[] createRecords(String query, Stream<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        return createRecords(query, (Iterable<T>) items::iterator, batchSetup, batchSize);
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT ... VALUES (...), (...) statements, for drivers that send
+     * JDBC batches as one statement per row. The query is a single-row INSERT ... VALUES (?, ...) query; it is rewritten
+     * to insert several rows at once, using a few fixed row counts so that statements can be reused by a statement cache.
+     * The rows are not inserted as a single transaction; use {@link DBTransaction#addMultiRowInsert(String, Iterable, DBBatchSetup, int)}
+     * if all rows must be inserted or none.
+     * @param query single-row INSERT query, whose parameters are all in the VALUES tuple.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters of each item,
+     *                 with the parameter indexes of the single-row query.
+     * @param maxParameters maximum number of parameters of a statement supported by the driver.
+     * @param <T> type of the items.
+     * @return the number of rows inserted.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES tuple only.
+     * @see DBUtils#processMultiRowInsert(Connection, DBQueryOptions, String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long processMultiRowInsert(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        long rows;
+
+        Connection conn = null;
+        try {
+            conn = getConnection(false);
+            rows = DBUtils.processMultiRowInsert(conn, options, query, items, rowSetup, maxParameters);
+            conn.close();
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        } finally {
+            DBUtils.connectionSilentClose(conn);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT statements of at most
+     * {@link DBUtils#DEFAULT_MAX_INSERT_PARAMETERS} parameters.
+     * @param query single-row INSERT query, whose parameters are all in the VALUES tuple.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters of each item.
+     * @param <T> type of the items.
+     * @return the number of rows inserted.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#processMultiRowInsert(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long processMultiRowInsert(String query, Iterable<T> items, DBBatchSetup<T> rowSetup) {
+        return processMultiRowInsert(query, items, rowSetup, DBUtils.DEFAULT_MAX_INSERT_PARAMETERS);
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT ... VALUES (...), (...) statements and obtain their IDs.
+     * The JDBC driver must support retrieving the generated keys of a multi-row insert.
+     * @param query single-row INSERT query, whose parameters are all in the VALUES tuple.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters of each item,
+     *                 with the parameter indexes of the single-row query.
+     * @param maxParameters maximum number of parameters of a statement supported by the driver.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES tuple only,
+     * or if the driver does not return one id per row.
+     * @see DBUtils#createMultiRowRecords(Connection, DBQueryOptions, String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long[] createMultiRowRecords(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        long[] ids;
+
+        Connection conn = null;
+        try {
+            conn = getConnection(false);
+            ids = DBUtils.createMultiRowRecords(conn, options, query, items, rowSetup, maxParameters);
+            conn.close();
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        } finally {
+            DBUtils.connectionSilentClose(conn);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT statements of at most
+     * {@link DBUtils#DEFAULT_MAX_INSERT_PARAMETERS} parameters and obtain their IDs.
+     * @param query single-row INSERT query, whose parameters are all in the VALUES tuple.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters of each item.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#createMultiRowRecords(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long[] createMultiRowRecords(String query, Iterable<T> items, DBBatchSetup<T> rowSetup) {
+        return createMultiRowRecords(query, items, rowSetup, DBUtils.DEFAULT_MAX_INSERT_PARAMETERS);
+    }
+
+    /**
+     * Use this method to process the results of a query as a lazy Stream, without loading them all in memory.
+     * The rows are read from a forward-only, read-only ResultSet while the stream is consumed. The connection is held until
+     * the stream is closed or all rows have been read, therefore the stream should be used in a try-with-resources statement.
+     * If the stream is abandoned without being closed, its resources are released after it has been garbage collected.
+     * Some drivers (e.g. PostgreSQL) only honor the fetch size when the connection is not in auto-commit mode.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row of the result.
+     * @param fetchSize number of rows the driver should fetch from the database at once, 0 for the driver default.
+     * @param <T> type of the stream elements.
+     * @return a Stream of the query results.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#stream(String, DBQuerySetup, DBRowMapper)
+     */
+    public <T> Stream<T> stream(String query, DBQuerySetup querySetup, DBRowMapper<T> rowMapper, int fetchSize) {
+        Stream<T> stream;
+
+        Connection conn = null;
+        try {
+            conn = getConnection(true);
+            stream = DBResultStream.open(conn, true, DBQueryOptions.builder(options).fetchSize(fetchSize).build(), query, querySetup, rowMapper);
+        } catch (SQLException ex) {
+            DBUtils.connectionSilentClose(conn);
+            throw DBDeadline.wrap(ex);
+        } catch (RuntimeException ex) {
+            DBUtils.connectionSilentClose(conn);
+            throw ex;
+        }
+
+        return stream;
+    }
+
+    /**
+     * Use this method to process the results of a query as a lazy Stream, using the fetch size of the options of this
+     * instance, or {@link DBAccess#DEFAULT_STREAM_FETCH_SIZE} if they don't specify one.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row of the result.
+     * @param <T> type of the stream elements.
+     * @return a Stream of the query results.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#stream(String, DBQuerySetup, DBRowMapper, int)
+     */
+    public <T> Stream<T> stream(String query, DBQuerySetup querySetup, DBRowMapper<T> rowMapper) {
+        return stream(query, querySetup, rowMapper, getStreamFetchSize());
+    }
+
+    /**
+     * Use this method to process the results of a query as a lazy Stream, using the fetch size of the options of this
+     * instance, or {@link DBAccess#DEFAULT_STREAM_FETCH_SIZE} if they don't specify one.
+     * @param query SQL query.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row of the result.
+     * @param <T> type of the stream elements.
+     * @return a Stream of the query results.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBAccess#stream(String, DBQuerySetup, DBRowMapper, int)
+     */
+    public <T> Stream<T> stream(String query, DBRowMapper<T> rowMapper) {
+        return stream(query, null, rowMapper, getStreamFetchSize());
+    }
+
+    private int getStreamFetchSize() {
+        return options.getFetchSize() == 0 ? DEFAULT_STREAM_FETCH_SIZE : options.getFetchSize();
+    }
 }
@@ -0,0 +1,286 @@
+package org.dbbeans.sql;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This class runs {@link DBAccess} operations asynchronously and returns their results as CompletableFutures.
+ *
+ * Operations run on a configurable Executor. By default, virtual threads are used when running on a JDK providing them
+ * (JDK 21 and later) and a pool of daemon platform threads is used otherwise.
+ *
+ * At most maxConcurrency operations run at the same time; further operations are queued without blocking the calling
+ * thread and start as soon as running operations complete. Set maxConcurrency at or below the number of connections
+ * available to the underlying {@link DB}, so that concurrent operations never wait on the connection pool.
+ */
+public class DBAsyncAccess implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final DBAccess dbAccess;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int maxConcurrency;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final Queue<Task<?>> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a DBAsyncAccess running operations on virtual threads if available, or on a pool of maxConcurrency threads otherwise.
+     * The threads are released by {@link DBAsyncAccess#close()}.
+     * @param dbAccess the {@link DBAccess} used to run the operations.
+     * @param maxConcurrency maximum number of operations running at the same time.
+     */
+    public DBAsyncAccess(DBAccess dbAccess, int maxConcurrency) {
+        this(dbAccess, createDefaultExecutor(maxConcurrency), maxConcurrency, true);
+    }
+
+    /**
+     * Creates a DBAsyncAccess running operations on the specified executor, which is not shut down by {@link DBAsyncAccess#close()}.
+     * @param dbAccess the {@link DBAccess} used to run the operations.
+     * @param executor the Executor running the operations.
+     * @param maxConcurrency maximum number of operations running at the same time.
+     */
+    public DBAsyncAccess(DBAccess dbAccess, Executor executor, int maxConcurrency) {
+        this(dbAccess, executor, maxConcurrency, false);
+    }
+
+    private DBAsyncAccess(DBAccess dbAccess, Executor executor, int maxConcurrency, boolean ownsExecutor) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("maxConcurrency must be at least 1: " + maxConcurrency);
+
+        this.dbAccess = dbAccess;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+    }
+
+    /**
+     * Returns an executor creating a new virtual thread for each task if the JDK supports virtual threads, or a fixed
+     * pool of daemon threads otherwise.
+     * @param platformThreads number of threads of the pool used when virtual threads are not available.
+     * @return a new ExecutorService, to be shut down by the caller.
+     */
+    public static ExecutorService createDefaultExecutor(int platformThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(platformThreads, runnable -> {
+                Thread thread = new Thread(runnable, "dbbeans-async-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processUpdate(String, DBQuerySetup)}.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the parameters for the update.
+     * @return a CompletableFuture completed with the number of database rows affected by the update.
+     */
+    public CompletableFuture<Integer> processUpdate(String query, DBQuerySetup querySetup) {
+        return submit(() -> dbAccess.processUpdate(query, querySetup));
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#createRecord(String, DBQuerySetup)}.
+     * @param query SQL query used to insert the row.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the data used in the query.
+     * @return a CompletableFuture completed with the id of the newly created row.
+     */
+    public CompletableFuture<Long> createRecord(String query, DBQuerySetup querySetup) {
+        return submit(() -> dbAccess.createRecord(query, querySetup));
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processQuery(String, DBQuerySetup, DBQueryProcess)}.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param queryProcess an object implementing the {@link DBQueryProcess} interface, used to process the query results.
+     * @return a CompletableFuture completed when the query results have been processed.
+     */
+    public CompletableFuture<Void> processQuery(String query, DBQuerySetup querySetup, DBQueryProcess queryProcess) {
+        return submit(() -> {
+            dbAccess.processQuery(query, querySetup, queryProcess);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processQuery(String, DBQueryProcess)}.
+     * @param query SQL query.
+     * @param queryProcess an object implementing the {@link DBQueryProcess} interface, used to process the query results.
+     * @return a CompletableFuture completed when the query results have been processed.
+     */
+    public CompletableFuture<Void> processQuery(String query, DBQueryProcess queryProcess) {
+        return submit(() -> {
+            dbAccess.processQuery(query, queryProcess);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processQuery(String, DBQuerySetup, DBQueryRetrieveData)}.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, used to process the query results.
+     * @param <T> type of query result.
+     * @return a CompletableFuture completed with the result of the query.
+     */
+    public <T> CompletableFuture<T> processQuery(String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData) {
+        return submit(() -> dbAccess.processQuery(query, querySetup, queryRetrieveData));
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processQuery(String, DBQueryRetrieveData)}.
+     * @param query SQL query.
+     * @param retrieveData an object implementing the {@link DBQueryRetrieveData} interface, used to process the query results.
+     * @param <T> type of query result.
+     * @return a CompletableFuture completed with the result of the query.
+     */
+    public <T> CompletableFuture<T> processQuery(String query, DBQueryRetrieveData<T> retrieveData) {
+        return submit(() -> dbAccess.processQuery(query, retrieveData));
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processUpdates(String, DBUpdates)}.
+     * @param query SQL query.
+     * @param updates an object implementing the {@link DBUpdates} interface, used to execute the updates.
+     * @return a CompletableFuture completed when the updates have been executed.
+     */
+    public CompletableFuture<Void> processUpdates(String query, DBUpdates updates) {
+        return submit(() -> {
+            dbAccess.processUpdates(query, updates);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processQueries(String, DBQueries)}.
+     * @param query SQL query.
+     * @param queries an object implementing the {@link DBQueries} interface, used to process the queries result.
+     * @param <T> type of queries result.
+     * @return a CompletableFuture completed with the result of the queries.
+     */
+    public <T> CompletableFuture<T> processQueries(String query, DBQueries<T> queries) {
+        return submit(() -> dbAccess.processQueries(query, queries));
+    }
+
+    /**
+     * Asynchronous version of {@link DBAccess#processQueries(String, DBQueriesNoReturn)}.
+     * @param query SQL query.
+     * @param queries an object implementing the {@link DBQueriesNoReturn} interface, used to process the queries result.
+     * @return a CompletableFuture completed when the queries have been processed.
+     */
+    public CompletableFuture<Void> processQueries(String query, DBQueriesNoReturn queries) {
+        return submit(() -> {
+            dbAccess.processQueries(query, queries);
+            return null;
+        });
+    }
+
+    /**
+     * Runs any code using the {@link DBAccess} of this instance asynchronously, under the same concurrency limit.
+     * @param work the code to run.
+     * @param <T> type of the result.
+     * @return a CompletableFuture completed with the result of the code.
+     */
+    public <T> CompletableFuture<T> execute(Function<DBAccess, T> work) {
+        return submit(() -> work.apply(dbAccess));
+    }
+
+    /**
+     * @return the number of operations currently running.
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    /**
+     * @return the number of operations waiting for a running operation to complete.
+     */
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the maximum number of operations running at the same time.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Shuts down the executor if it was created by this instance. Operations already submitted are completed.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        Task<T> task = new Task<>(operation);
+        waiting.add(task);
+        dispatch();
+        return task.future;
+    }
+
+    // Starts waiting operations as long as the concurrency limit allows it.
+    private void dispatch() {
+        while (!waiting.isEmpty()) {
+            int current = running.get();
+            if (current >= maxConcurrency)
+                return;
+            if (!running.compareAndSet(current, current + 1))
+                continue;
+
+            Task<?> task = waiting.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                continue;
+            }
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        dispatch();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                running.decrementAndGet();
+                task.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+
+    private static final class Task<T> {
+
+        final Supplier<T> operation;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(Supplier<T> operation) {
+            this.operation = operation;
+        }
+
+        void run() {
+            try {
+                future.complete(operation.get());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.dbbeans.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * In conjunction with the {@link DBAccess} or {@link DBTransaction} class, you use implementations of this interface to insert the code for setting up
+ * the parameters of one item of a batch update.
+ */
+public interface DBBatchSetup<T> {
+
+    /**
+     * Implement this function to setup the parameters of the PreparedStatement for one item of the batch.
+     * Do not call addBatch() or executeBatch() yourself, {@link DBAccess} or {@link DBTransaction} will do it for you.
+     * @param stat the preparedStatement to be set up by your code.
+     * @param item the item to be added to the batch.
+     * @throws SQLException if a database error occurs
+     */
+    public void setupPreparedStatement(PreparedStatement stat, T item) throws SQLException;
+
+}
@@ -0,0 +1,373 @@
+package org.dbbeans.sql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.math.BigDecimal;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts the rows of a ResultSet into JavaBeans or records, without reflection once the mapping has been compiled.
+ *
+ * Columns are matched to bean properties (public setters) or record components by name, ignoring case and underscores,
+ * so that a FIRST_NAME column is matched to a firstName property. Columns without matching property, and properties
+ * without matching column, are ignored; missing record components are set to null, or zero for primitive types.
+ *
+ * The mapping is compiled to MethodHandles the first time a result of a given shape (list of column labels) is seen,
+ * and cached for later queries with the same shape. Column indexes are resolved once per shape, never per row.
+ *
+ * Use this class directly as a {@link DBQueryRetrieveData} to get a List of objects from processQuery, or as a
+ * {@link DBRowMapper} with the stream functions. Instances are thread-safe and should be reused.
+ * @param <T> type of the objects created from the rows.
+ */
+public final class DBBeanMapper<T> implements DBQueryRetrieveData<List<T>>, DBRowMapper<T> {
+
+    private static final ConcurrentHashMap<Class<?>, DBBeanMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ColumnReader> READERS = createReaders();
+
+    private final Class<T> type;
+    private final Target target;
+    private final ConcurrentHashMap<List<String>, Compiled> compiled = new ConcurrentHashMap<>();
+
+    // last ResultSet seen by mapRow(), so that a stream resolves its columns only once; weakly referenced, so that a
+    // shared mapper does not keep a closed ResultSet and its driver buffers alive
+    private volatile ShapeOfResultSet lastShape;
+
+    private DBBeanMapper(Class<T> type, MethodHandles.Lookup lookup) {
+        this.type = type;
+        target = isRecord(type) ? new RecordTarget(type, lookup) : new BeanTarget(type, lookup);
+    }
+
+    /**
+     * Returns the shared mapper of a public class.
+     * @param type a public JavaBean class with a public no-argument constructor, or a public record.
+     * @param <T> type of the objects created from the rows.
+     * @return the mapper for the class.
+     * @throws IllegalArgumentException if the class is not a suitable bean or record.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> DBBeanMapper<T> of(Class<T> type) {
+        return (DBBeanMapper<T>) MAPPERS.computeIfAbsent(type, t -> new DBBeanMapper<>(t, MethodHandles.publicLookup()));
+    }
+
+    /**
+     * Creates a mapper using the access rights of the specified lookup, for classes that are not public or belong to a
+     * package that is not exported. Pass MethodHandles.lookup() from a class having access to the type, and keep the
+     * mapper for reuse, for instance in a static field.
+     * @param type a JavaBean class with a no-argument constructor, or a record.
+     * @param lookup a Lookup with access to the class constructor and setters.
+     * @param <T> type of the objects created from the rows.
+     * @return a new mapper for the class.
+     * @throws IllegalArgumentException if the class is not a suitable bean or record.
+     */
+    public static <T> DBBeanMapper<T> of(Class<T> type, MethodHandles.Lookup lookup) {
+        return new DBBeanMapper<>(type, lookup);
+    }
+
+    /**
+     * @return the class of the objects created from the rows.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Converts all rows of the ResultSet.
+     * @param rs the ResultSet from the execution of a query.
+     * @return a List containing one object per row.
+     * @throws SQLException if a database error occurs
+     */
+    @Override
+    public List<T> processResultSet(ResultSet rs) throws SQLException {
+        Compiled mapping = compile(rs.getMetaData());
+        List<T> rows = new ArrayList<>();
+        while (rs.next())
+            rows.add(type.cast(mapping.map(rs)));
+        return rows;
+    }
+
+    /**
+     * Converts the current row of the ResultSet.
+     * @param rs the ResultSet from the execution of a query, positioned on the row to be converted.
+     * @return the object corresponding to the current row.
+     * @throws SQLException if a database error occurs
+     */
+    @Override
+    public T mapRow(ResultSet rs) throws SQLException {
+        ShapeOfResultSet shape = lastShape;
+        if (shape == null || shape.rs.get() != rs) {
+            shape = new ShapeOfResultSet(rs, compile(rs.getMetaData()));
+            lastShape = shape;
+        }
+        return type.cast(shape.compiled.map(rs));
+    }
+
+    private Compiled compile(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        String[] labels = new String[columnCount];
+        for (int i = 0; i < columnCount; ++i)
+            labels[i] = metaData.getColumnLabel(i + 1);
+
+        List<String> shape = Arrays.asList(labels);
+        Compiled mapping = compiled.get(shape);
+        if (mapping == null) {
+            mapping = target.compile(labels);
+            compiled.putIfAbsent(shape, mapping);
+        }
+        return mapping;
+    }
+
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isRecord(Class<?> type) {
+        try {
+            return (Boolean) Class.class.getMethod("isRecord").invoke(type);
+        } catch (ReflectiveOperationException ex) {
+            return false;  // records are not supported before Java 16
+        }
+    }
+
+    private static ColumnReader reader(Class<?> type) {
+        ColumnReader reader = READERS.get(type);
+        if (reader != null)
+            return reader;
+        if (type.isEnum())
+            return (rs, index) -> {
+                String name = rs.getString(index);
+                return name == null ? null : enumValue(type, name);
+            };
+        return (rs, index) -> rs.getObject(index, type);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumValue(Class<?> type, String name) {
+        return Enum.valueOf((Class<Enum>) type, name);
+    }
+
+    private static Map<Class<?>, ColumnReader> createReaders() {
+        Map<Class<?>, ColumnReader> readers = new HashMap<>();
+        readers.put(boolean.class, ResultSet::getBoolean);
+        readers.put(byte.class, ResultSet::getByte);
+        readers.put(short.class, ResultSet::getShort);
+        readers.put(int.class, ResultSet::getInt);
+        readers.put(long.class, ResultSet::getLong);
+        readers.put(float.class, ResultSet::getFloat);
+        readers.put(double.class, ResultSet::getDouble);
+        readers.put(Boolean.class, (rs, index) -> nullIfWasNull(rs, rs.getBoolean(index)));
+        readers.put(Byte.class, (rs, index) -> nullIfWasNull(rs, rs.getByte(index)));
+        readers.put(Short.class, (rs, index) -> nullIfWasNull(rs, rs.getShort(index)));
+        readers.put(Integer.class, (rs, index) -> nullIfWasNull(rs, rs.getInt(index)));
+        readers.put(Long.class, (rs, index) -> nullIfWasNull(rs, rs.getLong(index)));
+        readers.put(Float.class, (rs, index) -> nullIfWasNull(rs, rs.getFloat(index)));
+        readers.put(Double.class, (rs, index) -> nullIfWasNull(rs, rs.getDouble(index)));
+        readers.put(String.class, ResultSet::getString);
+        readers.put(BigDecimal.class, ResultSet::getBigDecimal);
+        readers.put(byte[].class, ResultSet::getBytes);
+        readers.put(java.sql.Date.class, ResultSet::getDate);
+        readers.put(java.sql.Time.class, ResultSet::getTime);
+        readers.put(java.sql.Timestamp.class, ResultSet::getTimestamp);
+        readers.put(java.util.Date.class, ResultSet::getTimestamp);
+        readers.put(Instant.class, (rs, index) -> {
+            java.sql.Timestamp timestamp = rs.getTimestamp(index);
+            return timestamp == null ? null : timestamp.toInstant();
+        });
+        return readers;
+    }
+
+    private static Object nullIfWasNull(ResultSet rs, Object value) throws SQLException {
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Object invoke(MethodHandle handle, Object bean, Object value) throws SQLException {
+        try {
+            return handle.invokeExact(bean, value);
+        } catch (SQLException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    private interface ColumnReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+    }
+
+
+    private static final class ShapeOfResultSet {
+
+        private final WeakReference<ResultSet> rs;
+        private final Compiled compiled;
+
+        ShapeOfResultSet(ResultSet rs, Compiled compiled) {
+            this.rs = new WeakReference<>(rs);
+            this.compiled = compiled;
+        }
+    }
+
+
+    private interface Target {
+        Compiled compile(String[] labels);
+    }
+
+
+    private interface Compiled {
+        Object map(ResultSet rs) throws SQLException;
+    }
+
+
+    private static final class BeanTarget implements Target {
+
+        private final MethodHandle constructor;
+        private final Map<String, Method> setters = new HashMap<>();
+        private final MethodHandles.Lookup lookup;
+
+        BeanTarget(Class<?> type, MethodHandles.Lookup lookup) {
+            this.lookup = lookup;
+            try {
+                constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalArgumentException("Class " + type.getName() + " has no accessible no-argument constructor.", ex);
+            }
+
+            for (Method method : type.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 1
+                        || !method.getName().startsWith("set") || method.getName().length() == 3)
+                    continue;
+
+                String property = normalize(method.getName().substring(3));
+                Method previous = setters.get(property);
+                if (previous == null || matchesGetter(type, method))
+                    setters.put(property, method);
+            }
+        }
+
+        // with overloaded setters, prefer the one taking the type returned by the getter
+        private static boolean matchesGetter(Class<?> type, Method setter) {
+            String name = setter.getName().substring(3);
+            for (String prefix : new String[] { "get", "is" }) {
+                try {
+                    return type.getMethod(prefix + name).getReturnType() == setter.getParameterTypes()[0];
+                } catch (NoSuchMethodException ignore) { }
+            }
+            return false;
+        }
+
+        @Override
+        public Compiled compile(String[] labels) {
+            List<Integer> indexes = new ArrayList<>();
+            List<ColumnReader> readers = new ArrayList<>();
+            List<MethodHandle> handles = new ArrayList<>();
+            for (int i = 0; i < labels.length; ++i) {
+                Method setter = setters.get(normalize(labels[i]));
+                if (setter == null)
+                    continue;
+                try {
+                    handles.add(lookup.unreflect(setter).asType(MethodType.methodType(Object.class, Object.class, Object.class)));
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalArgumentException("Setter " + setter + " is not accessible.", ex);
+                }
+                indexes.add(i + 1);
+                readers.add(reader(setter.getParameterTypes()[0]));
+            }
+
+            int[] columnIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+            ColumnReader[] columnReaders = readers.toArray(new ColumnReader[0]);
+            MethodHandle[] setterHandles = handles.toArray(new MethodHandle[0]);
+            return rs -> {
+                Object bean;
+                try {
+                    bean = constructor.invokeExact();
+                } catch (RuntimeException | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new IllegalStateException(ex);
+                }
+                for (int i = 0; i < columnIndexes.length; ++i)
+                    invoke(setterHandles[i], bean, columnReaders[i].read(rs, columnIndexes[i]));
+                return bean;
+            };
+        }
+    }
+
+
+    private static final class RecordTarget implements Target {
+
+        private final String[] names;
+        private final Class<?>[] types;
+        private final MethodHandle constructor;
+
+        RecordTarget(Class<?> type, MethodHandles.Lookup lookup) {
+            try {
+                Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+                names = new String[components.length];
+                types = new Class<?>[components.length];
+                for (int i = 0; i < components.length; ++i) {
+                    Class<?> componentClass = components[i].getClass();
+                    names[i] = normalize((String) componentClass.getMethod("getName").invoke(components[i]));
+                    types[i] = (Class<?>) componentClass.getMethod("getType").invoke(components[i]);
+                }
+                constructor = lookup.findConstructor(type, MethodType.methodType(void.class, types))
+                        .asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalArgumentException("Canonical constructor of record " + type.getName() + " is not accessible.", ex);
+            }
+        }
+
+        @Override
+        public Compiled compile(String[] labels) {
+            Map<String, Integer> columns = new HashMap<>();
+            for (int i = labels.length - 1; i >= 0; --i)
+                columns.put(normalize(labels[i]), i + 1);
+
+            int[] columnIndexes = new int[names.length];
+            ColumnReader[] columnReaders = new ColumnReader[names.length];
+            Object[] defaults = new Object[names.length];
+            for (int i = 0; i < names.length; ++i) {
+                Integer index = columns.get(names[i]);
+                columnIndexes[i] = index == null ? 0 : index;
+                columnReaders[i] = reader(types[i]);
+                if (types[i].isPrimitive())
+                    defaults[i] = defaultValue(types[i]);
+            }
+
+            return rs -> {
+                Object[] arguments = new Object[columnIndexes.length];
+                for (int i = 0; i < columnIndexes.length; ++i)
+                    arguments[i] = columnIndexes[i] == 0 ? defaults[i] : columnReaders[i].read(rs, columnIndexes[i]);
+                try {
+                    return constructor.invokeExact(arguments);
+                } catch (RuntimeException | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new IllegalStateException(ex);
+                }
+            };
+        }
+
+        private static Object defaultValue(Class<?> primitive) {
+            return java.lang.reflect.Array.get(java.lang.reflect.Array.newInstance(primitive, 1), 0);
+        }
+    }
+}
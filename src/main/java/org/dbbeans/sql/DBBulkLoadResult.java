@@ -0,0 +1,90 @@
+package org.dbbeans.sql;
+
+import java.time.Duration;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress or outcome of a load by {@link DBBulkLoader}.
+ */
+public final class DBBulkLoadResult {
+
+    private final long bytesRead;
+    private final long recordsRead;
+    private final long rowsLoaded;
+    private final long rowsRejected;
+    private final long elapsedNanos;
+    private final List<String> rejections;
+
+    DBBulkLoadResult(long bytesRead, long recordsRead, long rowsLoaded, long rowsRejected, long elapsedNanos, List<String> rejections) {
+        this.bytesRead = bytesRead;
+        this.recordsRead = recordsRead;
+        this.rowsLoaded = rowsLoaded;
+        this.rowsRejected = rowsRejected;
+        this.elapsedNanos = elapsedNanos;
+        this.rejections = Collections.unmodifiableList(rejections);
+    }
+
+    /**
+     * @return the number of bytes read from the file.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of records parsed from the file, header excluded.
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return the number of rows inserted and committed.
+     */
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    /**
+     * @return the number of records that could not be parsed or inserted, and were written to the reject file if any.
+     */
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    /**
+     * @return the time elapsed since the beginning of the load.
+     */
+    public Duration getElapsed() {
+        return Duration.ofNanos(elapsedNanos);
+    }
+
+    /**
+     * @return the number of rows loaded per second.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rowsLoaded * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the number of megabytes read per second.
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytesRead * 1e9 / elapsedNanos / (1024 * 1024);
+    }
+
+    /**
+     * @return the reasons of the first rejections, each starting with the line number of the record.
+     */
+    public List<String> getRejections() {
+        return rejections;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records read, %d rows loaded, %d rejected in %.3f s (%.0f rows/s, %.1f MB/s)",
+                recordsRead, rowsLoaded, rowsRejected, elapsedNanos / 1e9, getRowsPerSecond(), getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,745 @@
+package org.dbbeans.sql;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * This class loads delimited files (CSV, TSV...) into a table.
+ *
+ * The file is read through a FileChannel into a direct buffer and parsed by the calling thread, which hands the records
+ * over in chunks to several workers through a bounded queue. Each worker inserts its chunks with JDBC batches on its own
+ * connection and commits every commitInterval rows. The parser follows RFC 4180: fields containing the delimiter,
+ * quotes or line breaks are quoted, and quotes are doubled inside quoted fields. Empty unquoted fields are read as null.
+ *
+ * A record is rejected if it is malformed, if its number of fields differs from the first record, or if its insert
+ * fails. When a batch fails, the worker rolls back its uncommitted rows and inserts them again one at a time, so that
+ * only the failing rows are rejected. Rejected records are written to the reject file, if one is configured, in the
+ * format of the input file, header record included, so that they can be corrected and loaded again.
+ *
+ * For example:
+ * DBBulkLoadResult result = DBBulkLoader.builder(db, "INSERT INTO item (id, name, qty) VALUES (?, ?, ?)")
+ *         .header(true).workers(4).rejectFile(Paths.get("item.rejects.csv")).build()
+ *         .load(Paths.get("item.csv"));
+ */
+public class DBBulkLoader {
+
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_REJECTIONS_KEPT = 100;
+
+    private static final Chunk END = new Chunk(0);
+
+    private final DB db;
+    private final String query;
+    private final DBQueryOptions options;
+    private final DBBatchSetup<String[]> rowSetup;
+    private final char delimiter;
+    private final char quote;
+    private final boolean header;
+    private final int fieldCount;
+    private final Charset charset;
+    private final int workers;
+    private final int batchSize;
+    private final int commitInterval;
+    private final boolean multiRowInserts;
+    private final Path rejectFile;
+    private final Consumer<DBBulkLoadResult> progressListener;
+    private final long progressPeriodNanos;
+    private final Executor executor;
+
+    private DBBulkLoader(Builder builder) {
+        db = builder.db;
+        query = builder.query;
+        options = builder.options;
+        rowSetup = builder.rowSetup;
+        delimiter = builder.delimiter;
+        quote = builder.quote;
+        header = builder.header;
+        fieldCount = builder.fieldCount;
+        charset = builder.charset;
+        workers = builder.workers;
+        batchSize = builder.batchSize;
+        commitInterval = builder.commitInterval;
+        multiRowInserts = builder.multiRowInserts;
+        rejectFile = builder.rejectFile;
+        progressListener = builder.progressListener;
+        progressPeriodNanos = builder.progressPeriod.toNanos();
+        executor = builder.executor;
+    }
+
+    /**
+     * Starts the configuration of a new loader.
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param query SQL query inserting one record, for instance INSERT INTO item (id, name, qty) VALUES (?, ?, ?).
+     * @return a {@link Builder} to configure the loader.
+     */
+    public static Builder builder(DB db, String query) {
+        return new Builder(db, query);
+    }
+
+    /**
+     * Loads a file. Rows are committed as the load progresses: if the load fails, the rows committed until then remain.
+     * @param file the file to load.
+     * @return the outcome of the load.
+     * @throws UncheckedIOException if the file cannot be read or the reject file cannot be written.
+     * @throws SQLRuntimeException if a worker cannot obtain a connection or commit its rows.
+     */
+    public DBBulkLoadResult load(Path file) {
+        return new Load().run(file);
+    }
+
+
+    // A chunk of records and the lines where they start.
+    private static final class Chunk {
+
+        final List<String[]> records;
+        final long[] lines;
+
+        Chunk(int capacity) {
+            records = new ArrayList<>(capacity);
+            lines = new long[capacity];
+        }
+
+        void add(String[] record, long line) {
+            lines[records.size()] = line;
+            records.add(record);
+        }
+    }
+
+
+    // The state of one execution of load().
+    private final class Load {
+
+        private final long start = System.nanoTime();
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(workers * 2);
+        private final CountDownLatch finished = new CountDownLatch(workers);
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final AtomicLong rowsLoaded = new AtomicLong();
+        private final AtomicLong rowsRejected = new AtomicLong();
+        private final List<String> rejections = Collections.synchronizedList(new ArrayList<>());
+
+        private volatile boolean cancelled;
+        private volatile long bytesRead;
+        private volatile long recordsRead;
+        private Writer rejectWriter;
+        private long nextProgress;
+
+        // parser state, used by the calling thread only
+        private final StringBuilder field = new StringBuilder();
+        private final List<String> fields = new ArrayList<>();
+        private int state = FIELD_START;
+        private boolean quotedField;
+        private String malformed;
+        private long line = 1;
+        private long recordLine = 1;
+        private boolean headerPending = header;
+        private int expectedFields = fieldCount;
+        private Chunk chunk = new Chunk(batchSize);
+
+        private static final int FIELD_START = 0;
+        private static final int UNQUOTED = 1;
+        private static final int QUOTED = 2;
+        private static final int QUOTE_IN_QUOTED = 3;
+
+        DBBulkLoadResult run(Path file) {
+            nextProgress = start + progressPeriodNanos;
+            try {
+                if (rejectFile != null)
+                    rejectWriter = Files.newBufferedWriter(rejectFile, charset);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            ExecutorService ownedExecutor = executor == null ? DBAsyncAccess.createDefaultExecutor(workers) : null;
+            Executor workerExecutor = executor == null ? ownedExecutor : executor;
+            try {
+                for (int i = 0; i < workers; ++i)
+                    workerExecutor.execute(this::work);
+
+                try {
+                    read(file);
+                } catch (RuntimeException ex) {
+                    fail(ex);
+                }
+                endWorkers();
+                finished.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(new IllegalStateException("Interrupted while loading " + file, ex));
+            } finally {
+                if (ownedExecutor != null)
+                    ownedExecutor.shutdown();
+                closeRejectWriter();
+            }
+
+            RuntimeException ex = failure.get();
+            if (ex != null)
+                throw ex;
+            return snapshot();
+        }
+
+        private DBBulkLoadResult snapshot() {
+            List<String> kept;
+            synchronized (rejections) {
+                kept = new ArrayList<>(rejections);
+            }
+            return new DBBulkLoadResult(bytesRead, recordsRead, rowsLoaded.get(), rowsRejected.get(), System.nanoTime() - start, kept);
+        }
+
+        private void fail(RuntimeException ex) {
+            failure.compareAndSet(null, ex);
+            cancelled = true;
+        }
+
+        private void endWorkers() throws InterruptedException {
+            if (cancelled)
+                queue.clear();
+            for (int i = 0; i < workers; ++i) {
+                while (!queue.offer(END, 50, TimeUnit.MILLISECONDS))
+                    if (cancelled)
+                        queue.clear();
+            }
+        }
+
+        // producer
+
+        private void read(Path file) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer bytes = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+                CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+                CharsetDecoder decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+                boolean eof = false;
+                while (!eof && !cancelled) {
+                    int read = channel.read(bytes);
+                    if (read < 0)
+                        eof = true;
+                    else
+                        bytesRead += read;
+
+                    bytes.flip();
+                    CoderResult result;
+                    do {
+                        result = decoder.decode(bytes, chars, eof);
+                        if (eof && !result.isOverflow())
+                            decoder.flush(chars);
+                        chars.flip();
+                        parse(chars);
+                        chars.clear();
+                    } while (result.isOverflow());
+                    bytes.compact();
+
+                    reportProgress();
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            if (cancelled)
+                return;
+            finishParsing();
+            if (!chunk.records.isEmpty())
+                enqueue(chunk);
+        }
+
+        private void reportProgress() {
+            if (progressListener == null)
+                return;
+            long now = System.nanoTime();
+            if (now - nextProgress >= 0) {
+                nextProgress = now + progressPeriodNanos;
+                progressListener.accept(snapshot());
+            }
+        }
+
+        private void parse(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                switch (state) {
+                    case FIELD_START:
+                    case UNQUOTED:
+                        if (c == delimiter) {
+                            endField();
+                        } else if (c == '\n') {
+                            endField();
+                            endRecord();
+                        } else if (c == quote && state == FIELD_START) {
+                            state = QUOTED;
+                            quotedField = true;
+                        } else if (c != '\r') {
+                            field.append(c);
+                            state = UNQUOTED;
+                        }
+                        break;
+                    case QUOTED:
+                        if (c == quote) {
+                            state = QUOTE_IN_QUOTED;
+                        } else {
+                            if (c == '\n')
+                                ++line;
+                            field.append(c);
+                        }
+                        break;
+                    default: // QUOTE_IN_QUOTED
+                        if (c == quote) {
+                            field.append(c);
+                            state = QUOTED;
+                        } else if (c == delimiter) {
+                            endField();
+                        } else if (c == '\n') {
+                            endField();
+                            endRecord();
+                        } else if (c != '\r') {
+                            if (malformed == null)
+                                malformed = "unexpected character after closing quote";
+                            field.append(c);
+                            state = UNQUOTED;
+                        }
+                }
+            }
+        }
+
+        private void finishParsing() {
+            if (state == QUOTED && malformed == null)
+                malformed = "unterminated quoted field";
+            if (state != FIELD_START || !fields.isEmpty() || field.length() > 0) {
+                endField();
+                endRecord();
+            }
+        }
+
+        private void endField() {
+            fields.add(field.length() == 0 && !quotedField ? null : field.toString());
+            field.setLength(0);
+            quotedField = false;
+            state = FIELD_START;
+        }
+
+        private void endRecord() {
+            long recordStart = recordLine;
+            recordLine = ++line;
+            String[] record = fields.toArray(new String[0]);
+            fields.clear();
+            String reason = malformed;
+            malformed = null;
+
+            // blank line
+            if (record.length == 1 && record[0] == null && reason == null)
+                return;
+            if (headerPending) {
+                headerPending = false;
+                // so that the reject file can be loaded again with the same configuration
+                writeRejected(record);
+                return;
+            }
+
+            ++recordsRead;
+            if (reason == null) {
+                if (expectedFields == 0)
+                    expectedFields = record.length;
+                else if (record.length != expectedFields)
+                    reason = "expected " + expectedFields + " fields, found " + record.length;
+            }
+            if (reason != null) {
+                reject(recordStart, record, reason);
+                return;
+            }
+
+            chunk.add(record, recordStart);
+            if (chunk.records.size() == batchSize) {
+                enqueue(chunk);
+                chunk = new Chunk(batchSize);
+            }
+        }
+
+        private void enqueue(Chunk full) {
+            try {
+                while (!queue.offer(full, 50, TimeUnit.MILLISECONDS))
+                    if (cancelled)
+                        return;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading.", ex);
+            }
+        }
+
+        // workers
+
+        private void work() {
+            List<Chunk> uncommitted = new ArrayList<>();
+            long uncommittedRows = 0;
+            DBTransaction transaction = null;
+            try {
+                while (!cancelled) {
+                    Chunk next = queue.poll(50, TimeUnit.MILLISECONDS);
+                    if (next == null)
+                        continue;
+                    if (next == END)
+                        break;
+
+                    if (transaction == null)
+                        transaction = new DBTransaction(db, options);
+                    uncommitted.add(next);
+                    uncommittedRows += next.records.size();
+                    try {
+                        if (multiRowInserts)
+                            transaction.addMultiRowInsert(query, next.records, rowSetup, DBUtils.DEFAULT_MAX_INSERT_PARAMETERS);
+                        else
+                            transaction.addBatch(query, next.records, rowSetup, batchSize);
+                    } catch (RuntimeException ex) {
+                        rollback(transaction);
+                        transaction = null;
+                        insertOneByOne(uncommitted);
+                        uncommitted.clear();
+                        uncommittedRows = 0;
+                        continue;
+                    }
+
+                    if (uncommittedRows >= commitInterval) {
+                        DBTransaction committed = transaction;
+                        transaction = null;
+                        committed.commit();
+                        rowsLoaded.addAndGet(uncommittedRows);
+                        uncommitted.clear();
+                        uncommittedRows = 0;
+                    }
+                }
+
+                if (transaction != null) {
+                    DBTransaction committed = transaction;
+                    transaction = null;
+                    if (cancelled) {
+                        rollback(committed);
+                    } else {
+                        committed.commit();
+                        rowsLoaded.addAndGet(uncommittedRows);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                fail(new IllegalStateException("Interrupted while loading.", ex));
+            } catch (RuntimeException ex) {
+                fail(ex);
+            } catch (Error ex) {
+                fail(new IllegalStateException("Error while loading.", ex));
+                throw ex;
+            } finally {
+                if (transaction != null)
+                    rollback(transaction);
+                finished.countDown();
+            }
+        }
+
+        private void rollback(DBTransaction transaction) {
+            try {
+                transaction.rollback();
+            } catch (RuntimeException ignore) {
+                // the connection is closed anyway
+            }
+        }
+
+        private void insertOneByOne(List<Chunk> chunks) {
+            DBAccess dbAccess = new DBAccess(db, options);
+            for (Chunk failed : chunks) {
+                for (int i = 0; i < failed.records.size(); ++i) {
+                    String[] record = failed.records.get(i);
+                    try {
+                        dbAccess.processUpdate(query, stat -> rowSetup.setupPreparedStatement(stat, record));
+                        rowsLoaded.incrementAndGet();
+                    } catch (RuntimeException ex) {
+                        reject(failed.lines[i], record, String.valueOf(ex.getMessage()));
+                    }
+                }
+            }
+        }
+
+        // rejects
+
+        private void reject(long recordLine, String[] record, String reason) {
+            rowsRejected.incrementAndGet();
+            synchronized (rejections) {
+                if (rejections.size() < MAX_REJECTIONS_KEPT)
+                    rejections.add("line " + recordLine + ": " + reason);
+            }
+            writeRejected(record);
+        }
+
+        private void writeRejected(String[] record) {
+            if (rejectWriter == null)
+                return;
+
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < record.length; ++i) {
+                if (i > 0)
+                    text.append(delimiter);
+                appendField(text, record[i]);
+            }
+            text.append('\n');
+            synchronized (this) {
+                try {
+                    rejectWriter.write(text.toString());
+                } catch (IOException ex) {
+                    fail(new UncheckedIOException(ex));
+                }
+            }
+        }
+
+        private void appendField(StringBuilder text, String value) {
+            if (value == null)
+                return;
+            boolean quoted = value.isEmpty() || value.indexOf(delimiter) >= 0 || value.indexOf(quote) >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+            if (!quoted) {
+                text.append(value);
+                return;
+            }
+            text.append(quote);
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c == quote)
+                    text.append(quote);
+                text.append(c);
+            }
+            text.append(quote);
+        }
+
+        private void closeRejectWriter() {
+            if (rejectWriter == null)
+                return;
+            synchronized (this) {
+                try {
+                    rejectWriter.close();
+                } catch (IOException ex) {
+                    fail(new UncheckedIOException(ex));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBBulkLoader}.
+     */
+    public static class Builder {
+
+        private final DB db;
+        private final String query;
+        private DBQueryOptions options = DBQueryOptions.DEFAULT;
+        private DBBatchSetup<String[]> rowSetup = (stat, fields) -> {
+            for (int i = 0; i < fields.length; ++i)
+                stat.setString(i + 1, fields[i]);
+        };
+        private char delimiter = ',';
+        private char quote = '"';
+        private boolean header;
+        private int fieldCount;
+        private Charset charset = StandardCharsets.UTF_8;
+        private int workers = 4;
+        private int batchSize = 1000;
+        private int commitInterval = 10_000;
+        private boolean multiRowInserts;
+        private Path rejectFile;
+        private Consumer<DBBulkLoadResult> progressListener;
+        private Duration progressPeriod = Duration.ofSeconds(10);
+        private Executor executor;
+
+        private Builder(DB db, String query) {
+            if (db == null)
+                throw new NullPointerException("db");
+            if (query == null)
+                throw new NullPointerException("query");
+            this.db = db;
+            this.query = query;
+        }
+
+        /**
+         * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+         * @return this builder.
+         */
+        public Builder options(DBQueryOptions options) {
+            if (options == null)
+                throw new NullPointerException("options");
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * @param rowSetup sets the parameters of the query from the fields of a record (null for empty unquoted fields).
+         *                 It is called by several threads at the same time. By default, field i is set as a String
+         *                 to parameter i + 1.
+         * @return this builder.
+         */
+        public Builder rowSetup(DBBatchSetup<String[]> rowSetup) {
+            if (rowSetup == null)
+                throw new NullPointerException("rowSetup");
+            this.rowSetup = rowSetup;
+            return this;
+        }
+
+        /**
+         * @param delimiter field delimiter, default ','. Use '\t' for TSV files.
+         * @return this builder.
+         */
+        public Builder delimiter(char delimiter) {
+            if (delimiter == '\n' || delimiter == '\r')
+                throw new IllegalArgumentException("Invalid delimiter");
+            this.delimiter = delimiter;
+            return this;
+        }
+
+        /**
+         * @param quote quote character, default '"'.
+         * @return this builder.
+         */
+        public Builder quote(char quote) {
+            if (quote == '\n' || quote == '\r')
+                throw new IllegalArgumentException("Invalid quote");
+            this.quote = quote;
+            return this;
+        }
+
+        /**
+         * @param header true if the first record of the file is a header to skip, default false.
+         * @return this builder.
+         */
+        public Builder header(boolean header) {
+            this.header = header;
+            return this;
+        }
+
+        /**
+         * @param fieldCount number of fields of each record; by default, the number of fields of the first record.
+         * @return this builder.
+         */
+        public Builder fieldCount(int fieldCount) {
+            if (fieldCount < 1)
+                throw new IllegalArgumentException("fieldCount must be at least 1: " + fieldCount);
+            this.fieldCount = fieldCount;
+            return this;
+        }
+
+        /**
+         * @param charset encoding of the file and of the reject file, default UTF-8.
+         * @return this builder.
+         */
+        public Builder charset(Charset charset) {
+            if (charset == null)
+                throw new NullPointerException("charset");
+            this.charset = charset;
+            return this;
+        }
+
+        /**
+         * @param workers number of threads inserting rows, each with its own connection, default 4.
+         * @return this builder.
+         */
+        public Builder workers(int workers) {
+            if (workers < 1)
+                throw new IllegalArgumentException("workers must be at least 1: " + workers);
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of records handed over to a worker and sent to the database at once, default 1000.
+         * @return this builder.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1)
+                throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param commitInterval number of rows after which a worker commits, default 10000. Larger intervals are faster
+         *                       but replay more rows when a batch fails.
+         * @return this builder.
+         */
+        public Builder commitInterval(int commitInterval) {
+            if (commitInterval < 1)
+                throw new IllegalArgumentException("commitInterval must be at least 1: " + commitInterval);
+            this.commitInterval = commitInterval;
+            return this;
+        }
+
+        /**
+         * @param multiRowInserts true to insert with multi-row INSERT statements, as
+         *                        {@link DBTransaction#addMultiRowInsert(String, Iterable, DBBatchSetup, int)}, instead of
+         *                        JDBC batches; default false.
+         * @return this builder.
+         */
+        public Builder multiRowInserts(boolean multiRowInserts) {
+            this.multiRowInserts = multiRowInserts;
+            return this;
+        }
+
+        /**
+         * @param rejectFile file receiving the rejected records, overwritten by each load; by default rejected records
+         *                   are only counted.
+         * @return this builder.
+         */
+        public Builder rejectFile(Path rejectFile) {
+            this.rejectFile = rejectFile;
+            return this;
+        }
+
+        /**
+         * @param progressListener called by the loading thread with the progress of the load.
+         * @param period how often the listener is called.
+         * @return this builder.
+         */
+        public Builder progress(Consumer<DBBulkLoadResult> progressListener, Duration period) {
+            if (period.isZero() || period.isNegative())
+                throw new IllegalArgumentException("period must be positive: " + period);
+            this.progressListener = progressListener;
+            progressPeriod = period;
+            return this;
+        }
+
+        /**
+         * @param executor the Executor running the workers, which must be able to run them all at the same time. By
+         *                 default, an executor is created for each load, using virtual threads if available.
+         * @return this builder.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBBulkLoader}.
+         */
+        public DBBulkLoader build() {
+            return new DBBulkLoader(this);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.dbbeans.sql;
+
+/**
+ * {@link DBAccess} answering queries from a {@link DBQueryCache} when possible.
+ *
+ * Only the processQuery functions returning a result through {@link DBQueryRetrieveData} use the cache; other queries
+ * always go to the database. Updates, record creations and batches invalidate the cached results depending on the
+ * tables they modify, whether they succeed or fail; so do the statements executed through processQueries, unless they
+ * are SELECT queries. Sessions opened with {@link DBCachedAccess#openSession()} use the cache in the same way.
+ */
+public class DBCachedAccess extends DBAccess {
+
+    private final DB db;
+    private final DBQueryCache cache;
+
+    /**
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param cache the {@link DBQueryCache} holding the results, possibly shared with other instances.
+     */
+    public DBCachedAccess(DB db, DBQueryCache cache) {
+        this(db, DBQueryOptions.DEFAULT, cache);
+    }
+
+    /**
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+     * @param cache the {@link DBQueryCache} holding the results, possibly shared with other instances.
+     */
+    public DBCachedAccess(DB db, DBQueryOptions options, DBQueryCache cache) {
+        super(db, options);
+        this.db = db;
+        this.cache = cache;
+    }
+
+    /**
+     * @param options a {@link DBQueryOptions} object, containing the options to apply.
+     * @return a DBCachedAccess using the same {@link DB} and {@link DBQueryCache}, and the specified options.
+     */
+    @Override
+    public DBCachedAccess withOptions(DBQueryOptions options) {
+        return new DBCachedAccess(db, options, cache);
+    }
+
+    /**
+     * @return a new {@link DBCachedSession} using the same {@link DB}, options and {@link DBQueryCache}.
+     */
+    @Override
+    public DBCachedSession openSession() {
+        return new DBCachedSession(db, getOptions(), cache);
+    }
+
+    /**
+     * @return the {@link DBQueryCache} holding the results.
+     */
+    public DBQueryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Use this method to update the database. Cached results depending on the updated table are invalidated.
+     * @see DBAccess#processUpdate(String, DBQuerySetup)
+     */
+    @Override
+    public int processUpdate(String query, DBQuerySetup querySetup) {
+        try {
+            return super.processUpdate(query, querySetup);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    /**
+     * Use this method to insert a single new row in the database and obtain its ID. Cached results depending on the table are invalidated.
+     * @see DBAccess#createRecord(String, DBQuerySetup)
+     */
+    @Override
+    public long createRecord(String query, DBQuerySetup querySetup) {
+        try {
+            return super.createRecord(query, querySetup);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    /**
+     * Use this method to query the database, using the cache when possible.
+     * The {@link DBQuerySetup} is called twice on a cache miss: once to compute the cache key, with a statement on which
+     * only parameters can be set, and once to set up the actual query. If it does anything else than setting parameters,
+     * the cache is bypassed.
+     * @see DBAccess#processQuery(String, DBQuerySetup, DBQueryRetrieveData)
+     */
+    @Override
+    public <T> T processQuery(String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData) {
+        return cache.get(query, querySetup, () -> super.processQuery(query, querySetup, queryRetrieveData));
+    }
+
+    /**
+     * Use this method to query the database, using the cache when possible.
+     * @see DBAccess#processQuery(String, DBQueryRetrieveData)
+     */
+    @Override
+    public <T> T processQuery(String query, DBQueryRetrieveData<T> retrieveData) {
+        return cache.get(query, null, () -> super.processQuery(query, retrieveData));
+    }
+
+    /**
+     * Use this method to execute the same update many times. Cached results depending on the updated table are invalidated.
+     * @see DBAccess#processUpdates(String, DBUpdates)
+     */
+    @Override
+    public void processUpdates(String query, DBUpdates updates) {
+        try {
+            super.processUpdates(query, updates);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    /**
+     * Use this method to process multiple queries or updates. Unless the SQL code is a SELECT query, cached results
+     * depending on the updated table are invalidated.
+     * @see DBAccess#processQueries(String, DBQueries)
+     */
+    @Override
+    public <T> T processQueries(String query, DBQueries<T> queries) {
+        try {
+            return super.processQueries(query, queries);
+        } finally {
+            cache.invalidateIfUpdate(query);
+        }
+    }
+
+    /**
+     * Use this method to process multiple queries or updates. Unless the SQL code is a SELECT query, cached results
+     * depending on the updated table are invalidated.
+     * @see DBAccess#processQueries(String, DBQueriesNoReturn)
+     */
+    @Override
+    public void processQueries(String query, DBQueriesNoReturn queries) {
+        try {
+            super.processQueries(query, queries);
+        } finally {
+            cache.invalidateIfUpdate(query);
+        }
+    }
+
+    /**
+     * Use this method to apply the same update to many items using JDBC batches. Cached results depending on the updated table are invalidated.
+     * @see DBAccess#processBatch(String, Iterable, DBBatchSetup, int)
+     */
+    @Override
+    public <T> int[] processBatch(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        try {
+            return super.processBatch(query, items, batchSetup, batchSize);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    /**
+     * Use this method to insert many new rows in the database using JDBC batches. Cached results depending on the table are invalidated.
+     * @see DBAccess#createRecords(String, Iterable, DBBatchSetup, int)
+     */
+    @Override
+    public <T> long[] createRecords(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        try {
+            return super.createRecords(query, items, batchSetup, batchSize);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT statements. Cached results depending on the table are invalidated.
+     * @see DBAccess#processMultiRowInsert(String, Iterable, DBBatchSetup, int)
+     */
+    @Override
+    public <T> long processMultiRowInsert(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        try {
+            return super.processMultiRowInsert(query, items, rowSetup, maxParameters);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT statements and obtain their IDs. Cached results depending on the table are invalidated.
+     * @see DBAccess#createMultiRowRecords(String, Iterable, DBBatchSetup, int)
+     */
+    @Override
+    public <T> long[] createMultiRowRecords(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        try {
+            return super.createMultiRowRecords(query, items, rowSetup, maxParameters);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+}
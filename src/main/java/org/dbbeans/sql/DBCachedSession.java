@@ -0,0 +1,144 @@
+package org.dbbeans.sql;
+
+/**
+ * {@link DBSession} answering queries from a {@link DBQueryCache} when possible, obtained with {@link DBCachedAccess#openSession()}.
+ *
+ * Since the connection of a session stays in auto-commit mode, queries use the cache and updates invalidate the cached
+ * results depending on the tables they modify exactly as with {@link DBCachedAccess}.
+ */
+public class DBCachedSession extends DBSession {
+
+    private final DB db;
+    private final DBQueryCache cache;
+
+    /**
+     * @param db a {@link DB} object to obtain the connection to the database.
+     * @param cache the {@link DBQueryCache} holding the results, possibly shared with other instances.
+     */
+    public DBCachedSession(DB db, DBQueryCache cache) {
+        this(db, DBQueryOptions.DEFAULT, cache);
+    }
+
+    /**
+     * @param db a {@link DB} object to obtain the connection to the database.
+     * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+     * @param cache the {@link DBQueryCache} holding the results, possibly shared with other instances.
+     */
+    public DBCachedSession(DB db, DBQueryOptions options, DBQueryCache cache) {
+        this(db, options, new Holder(), cache);
+    }
+
+    private DBCachedSession(DB db, DBQueryOptions options, Holder holder, DBQueryCache cache) {
+        super(db, options, holder);
+        this.db = db;
+        this.cache = cache;
+    }
+
+    /**
+     * @param options a {@link DBQueryOptions} object, containing the options to apply.
+     * @return a DBCachedSession sharing the connection and {@link DBQueryCache} of this session and using the specified
+     * options. Closing either session closes the connection.
+     */
+    @Override
+    public DBCachedSession withOptions(DBQueryOptions options) {
+        return new DBCachedSession(db, options, getHolder(), cache);
+    }
+
+    /**
+     * @return the {@link DBQueryCache} holding the results.
+     */
+    public DBQueryCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public int processUpdate(String query, DBQuerySetup querySetup) {
+        try {
+            return super.processUpdate(query, querySetup);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    @Override
+    public long createRecord(String query, DBQuerySetup querySetup) {
+        try {
+            return super.createRecord(query, querySetup);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    @Override
+    public <T> T processQuery(String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData) {
+        return cache.get(query, querySetup, () -> super.processQuery(query, querySetup, queryRetrieveData));
+    }
+
+    @Override
+    public <T> T processQuery(String query, DBQueryRetrieveData<T> retrieveData) {
+        return cache.get(query, null, () -> super.processQuery(query, retrieveData));
+    }
+
+    @Override
+    public void processUpdates(String query, DBUpdates updates) {
+        try {
+            super.processUpdates(query, updates);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    @Override
+    public <T> T processQueries(String query, DBQueries<T> queries) {
+        try {
+            return super.processQueries(query, queries);
+        } finally {
+            cache.invalidateIfUpdate(query);
+        }
+    }
+
+    @Override
+    public void processQueries(String query, DBQueriesNoReturn queries) {
+        try {
+            super.processQueries(query, queries);
+        } finally {
+            cache.invalidateIfUpdate(query);
+        }
+    }
+
+    @Override
+    public <T> int[] processBatch(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        try {
+            return super.processBatch(query, items, batchSetup, batchSize);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    @Override
+    public <T> long[] createRecords(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        try {
+            return super.createRecords(query, items, batchSetup, batchSize);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    @Override
+    public <T> long processMultiRowInsert(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        try {
+            return super.processMultiRowInsert(query, items, rowSetup, maxParameters);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+
+    @Override
+    public <T> long[] createMultiRowRecords(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        try {
+            return super.createMultiRowRecords(query, items, rowSetup, maxParameters);
+        } finally {
+            cache.invalidateUpdated(query);
+        }
+    }
+}
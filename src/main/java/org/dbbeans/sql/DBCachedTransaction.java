@@ -0,0 +1,130 @@
+package org.dbbeans.sql;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * {@link DBTransaction} invalidating the results of a {@link DBQueryCache} depending on the tables it modified, once committed.
+ *
+ * Queries made inside the transaction never use the cache, since they may see uncommitted changes.
+ * Statements run through addQueries count as updates unless they are SELECT queries.
+ * If the commit fails, the results are invalidated anyway, since the state of the database is then unknown.
+ */
+public class DBCachedTransaction extends DBTransaction {
+
+    private final DBQueryCache cache;
+    private final Set<String> updates = new LinkedHashSet<>();
+
+    /**
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param cache the {@link DBQueryCache} to invalidate on commit.
+     */
+    public DBCachedTransaction(DB db, DBQueryCache cache) {
+        this(db, DBQueryOptions.DEFAULT, cache);
+    }
+
+    /**
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+     * @param cache the {@link DBQueryCache} to invalidate on commit.
+     */
+    public DBCachedTransaction(DB db, DBQueryOptions options, DBQueryCache cache) {
+        super(db, options);
+        this.cache = cache;
+    }
+
+    /**
+     * @param builder a {@link DBTransaction.Builder} containing the configuration of the transaction.
+     * @param cache the {@link DBQueryCache} to invalidate on commit.
+     */
+    public DBCachedTransaction(DBTransaction.Builder builder, DBQueryCache cache) {
+        super(builder);
+        this.cache = cache;
+    }
+
+    /**
+     * @return the {@link DBQueryCache} invalidated on commit.
+     */
+    public DBQueryCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public int addUpdate(String query, DBQuerySetup querySetup) {
+        updates.add(query);
+        return super.addUpdate(query, querySetup);
+    }
+
+    @Override
+    public long addRecordCreation(String query, DBQuerySetup querySetup) {
+        updates.add(query);
+        return super.addRecordCreation(query, querySetup);
+    }
+
+    @Override
+    public void addUpdates(String query, DBUpdates updates) {
+        this.updates.add(query);
+        super.addUpdates(query, updates);
+    }
+
+    @Override
+    public <T> T addQueries(String query, DBQueries<T> queries) {
+        if (!DBQueryCache.isQuery(query))
+            updates.add(query);
+        return super.addQueries(query, queries);
+    }
+
+    @Override
+    public void addQueries(String query, DBQueriesNoReturn queries) {
+        if (!DBQueryCache.isQuery(query))
+            updates.add(query);
+        super.addQueries(query, queries);
+    }
+
+    @Override
+    public <T> int[] addBatch(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        updates.add(query);
+        return super.addBatch(query, items, batchSetup, batchSize);
+    }
+
+    @Override
+    public <T> long[] addRecordCreations(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        updates.add(query);
+        return super.addRecordCreations(query, items, batchSetup, batchSize);
+    }
+
+    @Override
+    public <T> long addMultiRowInsert(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        updates.add(query);
+        return super.addMultiRowInsert(query, items, rowSetup, maxParameters);
+    }
+
+    @Override
+    public <T> long[] addMultiRowRecordCreations(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        updates.add(query);
+        return super.addMultiRowRecordCreations(query, items, rowSetup, maxParameters);
+    }
+
+    /**
+     * Commits the changes to the database, then invalidates the cached results depending on the modified tables.
+     */
+    @Override
+    public void commit() {
+        try {
+            super.commit();
+        } finally {
+            if (!updates.isEmpty())
+                cache.invalidateUpdated(updates);
+            updates.clear();
+        }
+    }
+
+    /**
+     * Rolls back all changes; the cache is left untouched.
+     */
+    @Override
+    public void rollback() {
+        updates.clear();
+        super.rollback();
+    }
+}
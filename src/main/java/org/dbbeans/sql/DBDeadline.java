@@ -0,0 +1,254 @@
+package org.dbbeans.sql;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import java.time.Duration;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A point in time by which the database operations of the current thread must be done.
+ *
+ * While a deadline is in effect on a thread, every statement executed on that thread by {@link DBUtils} (and hence by
+ * {@link DBAccess}, {@link DBTransaction} and the other classes of this package) gets the remaining time as query timeout,
+ * rounded up to the second, and is cancelled with Statement.cancel() by a shared timer thread if it is still running
+ * when the deadline expires, in which case its connection is aborted. Waiting for a connection counts against the
+ * deadline too: no connection is requested once it has expired, and {@link DBPooled} waits for a free connection no
+ * longer than the remaining time. Operations that fail because of the deadline, or because the driver reported a
+ * timeout, throw a {@link DBTimeoutException}.
+ *
+ * Deadlines nest: a deadline started while another one is in effect cannot end later than the outer one.
+ * <pre>
+ * try (DBDeadline deadline = DBDeadline.start(Duration.ofMillis(500))) {
+ *     dbAccess.processQuery(...);
+ *     dbAccess.processUpdate(...);
+ * }
+ * </pre>
+ * Statements that outlive the scope of the deadline, such as those of the streams returned by
+ * {@link DBAccess#stream(String, DBQuerySetup, DBRowMapper, int)}, remain bound by the deadline in effect when they
+ * were executed.
+ */
+public final class DBDeadline implements AutoCloseable {
+
+    private static final ThreadLocal<DBDeadline> CURRENT = new ThreadLocal<>();
+
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final long deadline;
+    private final DBDeadline previous;
+    private final Thread thread;
+
+    private DBDeadline(long deadline, DBDeadline previous) {
+        this.deadline = deadline;
+        this.previous = previous;
+        thread = Thread.currentThread();
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "dbbeans-deadline-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Starts a deadline on the current thread. It must be closed on the same thread, which restores the deadline
+     * previously in effect, ideally with a try-with-resources statement.
+     * @param timeout time left to the database operations of the current thread.
+     * @return the new deadline, or a deadline equal to the one already in effect if that one expires earlier.
+     * @throws IllegalArgumentException if the timeout is negative.
+     */
+    public static DBDeadline start(Duration timeout) {
+        if (timeout.isNegative())
+            throw new IllegalArgumentException("timeout cannot be negative: " + timeout);
+
+        DBDeadline previous = CURRENT.get();
+        long deadline = System.nanoTime() + saturatedNanos(timeout);
+        if (previous != null && previous.deadline - deadline < 0)
+            deadline = previous.deadline;
+
+        DBDeadline started = new DBDeadline(deadline, previous);
+        CURRENT.set(started);
+        return started;
+    }
+
+    /**
+     * Runs a function under a deadline.
+     * @param timeout time left to the database operations of the function.
+     * @param call the function, typically calling {@link DBAccess} methods.
+     * @param <T> type of result.
+     * @return the result of the function.
+     * @throws DBTimeoutException if a database operation ran out of time.
+     * @see DBDeadline#start(Duration)
+     */
+    public static <T> T call(Duration timeout, Supplier<T> call) {
+        DBDeadline deadline = start(timeout);
+        try {
+            return call.get();
+        } finally {
+            deadline.close();
+        }
+    }
+
+    /**
+     * Runs some code under a deadline.
+     * @param timeout time left to the database operations of the code.
+     * @param code the code, typically calling {@link DBAccess} methods.
+     * @throws DBTimeoutException if a database operation ran out of time.
+     * @see DBDeadline#start(Duration)
+     */
+    public static void run(Duration timeout, Runnable code) {
+        DBDeadline deadline = start(timeout);
+        try {
+            code.run();
+        } finally {
+            deadline.close();
+        }
+    }
+
+    /**
+     * @return the deadline in effect on the current thread, or null if there is none.
+     */
+    public static DBDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the time left before the deadline, negative if it has expired.
+     */
+    public Duration getRemaining() {
+        return Duration.ofNanos(deadline - System.nanoTime());
+    }
+
+    /**
+     * @return true if the deadline has expired.
+     */
+    public boolean isExpired() {
+        return deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Ends this deadline and restores the deadline previously in effect on the thread.
+     * @throws IllegalStateException if called from another thread, or if a deadline started after this one is still in effect.
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() != thread)
+            throw new IllegalStateException("A deadline must be closed by the thread that started it.");
+        if (CURRENT.get() != this)
+            throw new IllegalStateException("Deadlines must be closed in the reverse order of their start.");
+
+        if (previous == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(previous);
+    }
+
+    private static long saturatedNanos(Duration duration) {
+        try {
+            return Math.min(duration.toNanos(), Long.MAX_VALUE / 2);
+        } catch (ArithmeticException ex) {
+            return Long.MAX_VALUE / 2;
+        }
+    }
+
+    // Long.MAX_VALUE if no deadline is in effect
+    static long remainingNanos() {
+        DBDeadline current = CURRENT.get();
+        return current == null ? Long.MAX_VALUE : current.deadline - System.nanoTime();
+    }
+
+    // throws a SQLTimeoutException if the deadline of the thread has expired
+    static void check(String operation) throws SQLTimeoutException {
+        if (remainingNanos() <= 0)
+            throw new SQLTimeoutException("Deadline expired before " + operation + ".");
+    }
+
+    /*
+     * Applies the deadline of the thread to a statement about to be executed: sets its query timeout and schedules its
+     * cancellation. Returns null if no deadline is in effect; otherwise the result must be passed to disarm() once the
+     * statement is done.
+     */
+    static Cancellation arm(Statement stat) throws SQLException {
+        long remaining = remainingNanos();
+        if (remaining == Long.MAX_VALUE)
+            return null;
+        check("executing the statement");
+
+        int seconds = (int) Math.min(Integer.MAX_VALUE, (remaining + 999_999_999L) / 1_000_000_000L);
+        int queryTimeout = stat.getQueryTimeout();
+        if (queryTimeout == 0 || queryTimeout > seconds)
+            stat.setQueryTimeout(seconds);
+
+        Cancellation cancellation = new Cancellation(stat);
+        cancellation.future = TIMER.schedule(cancellation, remaining, TimeUnit.NANOSECONDS);
+        return cancellation;
+    }
+
+    static void disarm(Cancellation cancellation) {
+        if (cancellation != null)
+            cancellation.disarm();
+    }
+
+    /*
+     * Converts a SQLException into the appropriate unchecked exception: a DBTimeoutException if the driver reported a
+     * timeout or if the deadline of the thread has expired (a cancelled statement may fail with any SQLException).
+     */
+    static SQLRuntimeException wrap(SQLException ex) {
+        if (ex instanceof SQLTimeoutException || remainingNanos() <= 0)
+            return new DBTimeoutException(ex);
+        return new SQLRuntimeException(ex);
+    }
+
+
+    /*
+     * Synchronized so that a statement is never cancelled once disarmed, when it may already be reused by another
+     * operation through a statement cache. A cancellation reaching the database after the statement completed could
+     * hit the next statement run on the connection, so the connection of a cancelled statement is aborted on disarm
+     * rather than reused.
+     */
+    static final class Cancellation implements Runnable {
+
+        private final Statement stat;
+        private boolean done;
+        private boolean fired;
+        private ScheduledFuture<?> future;
+
+        private Cancellation(Statement stat) {
+            this.stat = stat;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (done)
+                return;
+            done = true;
+            fired = true;
+            try {
+                stat.cancel();
+            } catch (SQLException | RuntimeException ignore) {
+                // the statement is done or its connection is gone
+            }
+        }
+
+        synchronized void disarm() {
+            done = true;
+            future.cancel(false);
+            if (fired) {
+                try {
+                    stat.getConnection().abort(Runnable::run);
+                } catch (SQLException | RuntimeException ignore) {
+                    // the connection is unusable anyway
+                }
+            }
+        }
+    }
+}
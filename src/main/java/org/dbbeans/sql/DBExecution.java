@@ -0,0 +1,123 @@
+package org.dbbeans.sql;
+
+import java.sql.PreparedStatement;
+
+import java.util.Collections;
+
+/**
+ * Times the phases of a statement execution for {@link DBInstrumentation}.
+ *
+ * When no listener is registered, {@link DBExecution#start(DBOperation, String)} returns a shared instance whose
+ * methods do nothing.
+ */
+class DBExecution {
+
+    private static final DBExecution NONE = new DBExecution();
+
+    static DBExecution start(DBOperation operation, String sql) {
+        if (!DBInstrumentation.isEnabled())
+            return NONE;
+        return new Timed(operation, sql);
+    }
+
+    /**
+     * Returns the statement to be passed to {@link DBQuerySetup}: a proxy recording parameter values if a listener
+     * requires them, the statement itself otherwise.
+     * @param stat the statement being prepared.
+     * @return the statement to set the parameters on.
+     */
+    PreparedStatement capture(PreparedStatement stat) {
+        return stat;
+    }
+
+    /**
+     * Marks the end of the preparation phase: statement prepared and parameters set.
+     */
+    void prepared() { }
+
+    /**
+     * Marks the end of the execution phase.
+     */
+    void executed() { }
+
+    /**
+     * Marks the end of result processing and reports the execution.
+     * @param rows number of rows affected or read, -1 if unknown.
+     */
+    void completed(long rows) { }
+
+    /**
+     * Reports a failed execution.
+     * @param failure the exception that made the execution fail.
+     */
+    void failed(Throwable failure) { }
+
+
+    private static final class Timed extends DBExecution {
+
+        private final DBOperation operation;
+        private final String sql;
+        private final long acquireNanos;
+        private final long start;
+
+        private DBParameterCapture parameters;
+        private long prepared;
+        private long executed;
+        private boolean reported = false;
+
+        Timed(DBOperation operation, String sql) {
+            this.operation = operation;
+            this.sql = sql;
+            acquireNanos = DBInstrumentation.takePendingAcquireNanos();
+            start = System.nanoTime();
+        }
+
+        @Override
+        PreparedStatement capture(PreparedStatement stat) {
+            if (!DBInstrumentation.capturesParameters())
+                return stat;
+            parameters = new DBParameterCapture(stat);
+            return parameters.getProxy();
+        }
+
+        @Override
+        void prepared() {
+            prepared = System.nanoTime();
+        }
+
+        @Override
+        void executed() {
+            executed = System.nanoTime();
+        }
+
+        @Override
+        void completed(long rows) {
+            report(rows, null);
+        }
+
+        @Override
+        void failed(Throwable failure) {
+            report(-1, failure);
+        }
+
+        private void report(long rows, Throwable failure) {
+            if (reported)
+                return;
+            reported = true;
+
+            long end = System.nanoTime();
+            long preparedAt = prepared == 0 ? end : prepared;
+            long executedAt = executed == 0 ? end : executed;
+            DBInstrumentation.statementCompleted(new DBStatementEvent(
+                    operation,
+                    sql,
+                    acquireNanos,
+                    preparedAt - start,
+                    executedAt - preparedAt,
+                    end - executedAt,
+                    rows,
+                    parameters == null ? Collections.emptyList() : parameters.getValues(),
+                    failure));
+        }
+    }
+}
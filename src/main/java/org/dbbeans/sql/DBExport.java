@@ -0,0 +1,577 @@
+package org.dbbeans.sql;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.math.BigDecimal;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class exports the results of a query to a file or any WritableByteChannel, in CSV or in a compact binary format.
+ *
+ * Rows are read from a forward-only, read-only ResultSet with a large fetch size, and column values are encoded
+ * directly into a direct ByteBuffer reused for the whole export: integers are written digit by digit and strings are
+ * encoded to UTF-8 character by character, without intermediate Strings or byte arrays per row. The buffer is written
+ * to the channel whenever it is full, optionally through gzip compression.
+ *
+ * CSV: one line per row terminated by '\n', fields separated by the delimiter, with an optional header line of column
+ * labels. Fields containing the delimiter, quotes or line breaks are quoted and their quotes doubled (RFC 4180). SQL
+ * NULL is an empty field and an empty string is "", as read by {@link DBBulkLoader}. Binary columns are hexadecimal.
+ *
+ * Binary: the magic bytes "DBX1", the number of columns as a varint, then for each column its label as a string and
+ * its type code (1 integer, 2 floating point, 3 boolean, 4 string, 5 bytes). Each row is the byte 1, a null bitmap of
+ * (columns + 7) / 8 bytes (bit i % 8 of byte i / 8 set when column i is NULL), then the non-null values: integers as
+ * zigzag varints, floating point numbers as 8-byte big-endian IEEE 754 doubles, booleans as one byte, strings (decimals,
+ * dates and times included) as a varint byte length followed by UTF-8, bytes as a varint length followed by the bytes.
+ * The byte 0 ends the rows. Varints are unsigned LEB128.
+ */
+public class DBExport {
+
+    /**
+     * Export formats.
+     */
+    public enum Format {
+        /**
+         * Comma (or other delimiter) separated values.
+         */
+        CSV,
+        /**
+         * Length-prefixed binary format described in {@link DBExport}.
+         */
+        BINARY
+    }
+
+    private static final byte[] MAGIC = { 'D', 'B', 'X', '1' };
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int INTEGER = 1;
+    private static final int FLOAT = 2;
+    private static final int BOOLEAN = 3;
+    private static final int STRING = 4;
+    private static final int BYTES = 5;
+    private static final int DECIMAL = 6; // written as STRING
+
+    private final Format format;
+    private final char delimiter;
+    private final char quote;
+    private final boolean header;
+    private final boolean gzip;
+    private final int bufferSize;
+    private final int fetchSize;
+
+    private DBExport(Builder builder) {
+        format = builder.format;
+        delimiter = builder.delimiter;
+        quote = builder.quote;
+        header = builder.header;
+        gzip = builder.gzip;
+        bufferSize = builder.bufferSize;
+        fetchSize = builder.fetchSize;
+    }
+
+    /**
+     * Starts the configuration of a new exporter.
+     * @param format the format of the exported data.
+     * @return a {@link Builder} to configure the exporter.
+     */
+    public static Builder builder(Format format) {
+        return new Builder(format);
+    }
+
+    /**
+     * Exports the results of a query to a file, replaced if it exists.
+     * @param dbAccess the {@link DBAccess} used to run the query; its fetch size is replaced by the fetch size of this exporter.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param file the file receiving the data.
+     * @return the number of rows exported and the throughput.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access.
+     * @throws UncheckedIOException if an error occurs while writing the file.
+     */
+    public DBExportResult export(DBAccess dbAccess, String query, DBQuerySetup querySetup, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return export(dbAccess, query, querySetup, channel);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Exports the results of a query to a channel, which is not closed.
+     * @param dbAccess the {@link DBAccess} used to run the query; its fetch size is replaced by the fetch size of this exporter.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param channel the channel receiving the data.
+     * @return the number of rows exported and the throughput.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access.
+     * @throws UncheckedIOException if an error occurs while writing to the channel.
+     */
+    public DBExportResult export(DBAccess dbAccess, String query, DBQuerySetup querySetup, WritableByteChannel channel) {
+        DBQueryOptions options = DBQueryOptions.builder(dbAccess.getOptions()).fetchSize(fetchSize).forwardOnlyReadOnly().build();
+        return dbAccess.withOptions(options).processQuery(query, querySetup, to(channel));
+    }
+
+    /**
+     * Use this method to export results with {@link DBTransaction#addQuery(String, DBQuerySetup, DBQueryRetrieveData)}
+     * or other functions taking a {@link DBQueryRetrieveData}. The fetch size of this exporter is not applied.
+     * @param channel the channel receiving the data, which is not closed.
+     * @return a {@link DBQueryRetrieveData} writing the rows of the ResultSet to the channel.
+     */
+    public DBQueryRetrieveData<DBExportResult> to(WritableByteChannel channel) {
+        return rs -> {
+            long start = System.nanoTime();
+            try {
+                GZIPOutputStream compressed = gzip ? new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) : null;
+                Encoder encoder = new Encoder(compressed == null ? channel : Channels.newChannel(compressed));
+                long rows = format == Format.CSV ? encoder.writeCsv(rs) : encoder.writeBinary(rs);
+                encoder.flush();
+                if (compressed != null)
+                    compressed.finish();
+                return new DBExportResult(rows, encoder.bytes, System.nanoTime() - start);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+    }
+
+    private static int[] columnTypes(ResultSetMetaData metaData) throws SQLException {
+        int[] types = new int[metaData.getColumnCount()];
+        for (int i = 0; i < types.length; ++i) {
+            switch (metaData.getColumnType(i + 1)) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    types[i] = INTEGER;
+                    break;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    types[i] = FLOAT;
+                    break;
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    types[i] = BOOLEAN;
+                    break;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    types[i] = DECIMAL;
+                    break;
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    types[i] = BYTES;
+                    break;
+                default:
+                    types[i] = STRING;
+            }
+        }
+        return types;
+    }
+
+
+    // Encodes values into the buffer, writing it to the channel when full.
+    private final class Encoder {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        private final byte[] digits = new byte[20];
+        private long bytes;
+
+        Encoder(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        long writeCsv(ResultSet rs) throws SQLException, IOException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int[] types = columnTypes(metaData);
+
+            if (header) {
+                for (int i = 0; i < types.length; ++i) {
+                    if (i > 0)
+                        putAscii(delimiter);
+                    putCsvString(metaData.getColumnLabel(i + 1));
+                }
+                putAscii('\n');
+            }
+
+            long rows = 0;
+            while (rs.next()) {
+                for (int i = 0; i < types.length; ++i) {
+                    if (i > 0)
+                        putAscii(delimiter);
+                    int column = i + 1;
+                    switch (types[i]) {
+                        case INTEGER: {
+                            long value = rs.getLong(column);
+                            if (!rs.wasNull())
+                                putDecimal(value);
+                            break;
+                        }
+                        case FLOAT: {
+                            double value = rs.getDouble(column);
+                            if (!rs.wasNull())
+                                putCsvString(Double.toString(value));
+                            break;
+                        }
+                        case BOOLEAN: {
+                            boolean value = rs.getBoolean(column);
+                            if (!rs.wasNull())
+                                putCsvString(value ? "true" : "false");
+                            break;
+                        }
+                        case DECIMAL: {
+                            BigDecimal value = rs.getBigDecimal(column);
+                            if (value != null)
+                                putCsvString(value.toPlainString());
+                            break;
+                        }
+                        case BYTES: {
+                            byte[] value = rs.getBytes(column);
+                            if (value != null)
+                                putHex(value);
+                            break;
+                        }
+                        default: {
+                            String value = rs.getString(column);
+                            if (value != null)
+                                putCsvString(value);
+                        }
+                    }
+                }
+                putAscii('\n');
+                ++rows;
+            }
+            return rows;
+        }
+
+        long writeBinary(ResultSet rs) throws SQLException, IOException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int[] types = columnTypes(metaData);
+
+            ensure(MAGIC.length);
+            buffer.put(MAGIC);
+            putVarint(types.length);
+            for (int i = 0; i < types.length; ++i) {
+                putLengthPrefixedString(metaData.getColumnLabel(i + 1));
+                ensure(1);
+                buffer.put((byte) (types[i] == DECIMAL ? STRING : types[i]));
+            }
+
+            // values of the current row, read before writing so that the null bitmap can precede them
+            long[] longs = new long[types.length];
+            double[] doubles = new double[types.length];
+            Object[] objects = new Object[types.length];
+            byte[] bitmap = new byte[(types.length + 7) / 8];
+
+            long rows = 0;
+            while (rs.next()) {
+                Arrays.fill(bitmap, (byte) 0);
+                for (int i = 0; i < types.length; ++i) {
+                    int column = i + 1;
+                    boolean isNull;
+                    switch (types[i]) {
+                        case INTEGER:
+                            longs[i] = rs.getLong(column);
+                            isNull = rs.wasNull();
+                            break;
+                        case FLOAT:
+                            doubles[i] = rs.getDouble(column);
+                            isNull = rs.wasNull();
+                            break;
+                        case BOOLEAN:
+                            longs[i] = rs.getBoolean(column) ? 1 : 0;
+                            isNull = rs.wasNull();
+                            break;
+                        case DECIMAL: {
+                            BigDecimal value = rs.getBigDecimal(column);
+                            objects[i] = value == null ? null : value.toPlainString();
+                            isNull = value == null;
+                            break;
+                        }
+                        case BYTES:
+                            objects[i] = rs.getBytes(column);
+                            isNull = objects[i] == null;
+                            break;
+                        default:
+                            objects[i] = rs.getString(column);
+                            isNull = objects[i] == null;
+                    }
+                    if (isNull)
+                        bitmap[i / 8] |= (byte) (1 << (i % 8));
+                }
+
+                ensure(1);
+                buffer.put((byte) 1);
+                putBytes(bitmap);
+                for (int i = 0; i < types.length; ++i) {
+                    if ((bitmap[i / 8] & (1 << (i % 8))) != 0)
+                        continue;
+                    switch (types[i]) {
+                        case INTEGER:
+                            putVarint((longs[i] << 1) ^ (longs[i] >> 63));
+                            break;
+                        case FLOAT:
+                            ensure(8);
+                            buffer.putDouble(doubles[i]);
+                            break;
+                        case BOOLEAN:
+                            ensure(1);
+                            buffer.put((byte) longs[i]);
+                            break;
+                        case BYTES: {
+                            byte[] value = (byte[]) objects[i];
+                            putVarint(value.length);
+                            putBytes(value);
+                            break;
+                        }
+                        default:
+                            putLengthPrefixedString((String) objects[i]);
+                    }
+                    objects[i] = null;
+                }
+                ++rows;
+            }
+            ensure(1);
+            buffer.put((byte) 0);
+            return rows;
+        }
+
+        private void ensure(int count) throws IOException {
+            if (buffer.remaining() < count)
+                flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            bytes += buffer.remaining();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void putAscii(char c) throws IOException {
+            ensure(1);
+            buffer.put((byte) c);
+        }
+
+        private void putDecimal(long value) throws IOException {
+            ensure(20);
+            if (value == Long.MIN_VALUE) {
+                buffer.put("-9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            if (value < 0) {
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            int position = digits.length;
+            do {
+                digits[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            buffer.put(digits, position, digits.length - position);
+        }
+
+        private void putVarint(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void putBytes(byte[] value) throws IOException {
+            int offset = 0;
+            while (offset < value.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), value.length - offset);
+                buffer.put(value, offset, length);
+                offset += length;
+            }
+        }
+
+        private void putHex(byte[] value) throws IOException {
+            for (byte b : value) {
+                ensure(2);
+                buffer.put(HEX[(b >> 4) & 0xF]);
+                buffer.put(HEX[b & 0xF]);
+            }
+        }
+
+        private void putCsvString(String value) throws IOException {
+            boolean quoted = value.isEmpty();
+            for (int i = 0; i < value.length() && !quoted; ++i) {
+                char c = value.charAt(i);
+                quoted = c == delimiter || c == quote || c == '\n' || c == '\r';
+            }
+            if (!quoted) {
+                putUtf8(value);
+                return;
+            }
+
+            putAscii(quote);
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c == quote)
+                    putAscii(quote);
+                i = putUtf8(value, i);
+            }
+            putAscii(quote);
+        }
+
+        private void putLengthPrefixedString(String value) throws IOException {
+            int length = 0;
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c < 0x80)
+                    length += 1;
+                else if (c < 0x800)
+                    length += 2;
+                else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    ++i;
+                } else
+                    length += 3;
+            }
+            putVarint(length);
+            putUtf8(value);
+        }
+
+        private void putUtf8(String value) throws IOException {
+            for (int i = 0; i < value.length(); ++i)
+                i = putUtf8(value, i);
+        }
+
+        // encodes the character at index, or the surrogate pair starting at index; returns the index of the last char used
+        private int putUtf8(String value, int index) throws IOException {
+            ensure(4);
+            char c = value.charAt(index);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++index));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                // lone surrogates are encoded as is, like Java's modified UTF-8 does
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            return index;
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBExport}.
+     */
+    public static class Builder {
+
+        private final Format format;
+        private char delimiter = ',';
+        private char quote = '"';
+        private boolean header = true;
+        private boolean gzip;
+        private int bufferSize = 1 << 20;
+        private int fetchSize = 10_000;
+
+        private Builder(Format format) {
+            if (format == null)
+                throw new NullPointerException("format");
+            this.format = format;
+        }
+
+        /**
+         * @param delimiter CSV field delimiter, default ','. Use '\t' for TSV.
+         * @return this builder.
+         */
+        public Builder delimiter(char delimiter) {
+            if (delimiter >= 0x80 || delimiter == '\n' || delimiter == '\r')
+                throw new IllegalArgumentException("Invalid delimiter");
+            this.delimiter = delimiter;
+            return this;
+        }
+
+        /**
+         * @param quote CSV quote character, default '"'.
+         * @return this builder.
+         */
+        public Builder quote(char quote) {
+            if (quote >= 0x80 || quote == '\n' || quote == '\r')
+                throw new IllegalArgumentException("Invalid quote");
+            this.quote = quote;
+            return this;
+        }
+
+        /**
+         * @param header true to write a CSV header line with the column labels, default true.
+         * @return this builder.
+         */
+        public Builder header(boolean header) {
+            this.header = header;
+            return this;
+        }
+
+        /**
+         * @param gzip true to compress the output with gzip, default false.
+         * @return this builder.
+         */
+        public Builder gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        /**
+         * @param bufferSize size of the direct buffer in which values are encoded, default 1 MB.
+         * @return this builder.
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 64)
+                throw new IllegalArgumentException("bufferSize must be at least 64: " + bufferSize);
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param fetchSize number of rows the driver should fetch from the database at once, default 10000.
+         * @return this builder.
+         */
+        public Builder fetchSize(int fetchSize) {
+            if (fetchSize < 0)
+                throw new IllegalArgumentException("fetchSize cannot be negative: " + fetchSize);
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBExport}.
+         */
+        public DBExport build() {
+            return new DBExport(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.dbbeans.sql;
+
+import java.time.Duration;
+
+/**
+ * Outcome of an export by {@link DBExport}.
+ */
+public final class DBExportResult {
+
+    private final long rows;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    DBExportResult(long rows, long bytes, long elapsedNanos) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the number of rows exported.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of bytes produced, before compression.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the duration of the export, query execution included.
+     */
+    public Duration getElapsed() {
+        return Duration.ofNanos(elapsedNanos);
+    }
+
+    /**
+     * @return the number of rows exported per second.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows, %d bytes in %.3f s (%.0f rows/s)", rows, bytes, elapsedNanos / 1e9, getRowsPerSecond());
+    }
+}
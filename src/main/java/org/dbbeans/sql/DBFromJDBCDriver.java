@@ -9,6 +9,7 @@ import java.sql.SQLException;
  *
  * This class is not optimized in any way and does not implement any caching mechanism. It should therefore only
  * be used for testing or extremely simple applications requiring few database connexions.
+ * Wrap it in a {@link DBPooled} instance if connections should be reused.
  *
  * Your application should use a container providing DataSources and you should use the DBFromDataSource class instead of this one.
  */
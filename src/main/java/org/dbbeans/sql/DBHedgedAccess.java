@@ -0,0 +1,485 @@
+package org.dbbeans.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class runs read-only queries against equivalent replicas, hedging the slow ones to cut tail latency.
+ *
+ * Each query is sent to a replica chosen in turn. If that replica has not answered within a threshold, the same query
+ * is sent to the next replica, the first successful answer is returned and the other query is cancelled with
+ * Statement.cancel(), after which its connection is aborted rather than reused. The threshold adapts to each query: it
+ * is the observed latency at a given percentile (95 by default) for the fingerprint of the query (see
+ * {@link DBInstrumentation#fingerprint(String)}), over roughly the last 10000 executions; a fixed initial delay is used
+ * until enough executions have been observed.
+ *
+ * Hedged queries are extra load on the replicas, so they are capped by a budget: each query earns a fraction of a hedge
+ * (5% by default), and a query is hedged only if a whole hedge was earned, so that at most that fraction of the queries
+ * are sent twice, with bursts of at most 10 hedges.
+ *
+ * Only use this class for idempotent queries. Both attempts may run at the same time, so the {@link DBQuerySetup} and
+ * {@link DBQueryRetrieveData} passed to the query functions must not have side effects: only the result of the winner
+ * is returned. Queries run on an Executor; the {@link DBDeadline} of the calling thread applies to them.
+ */
+public class DBHedgedAccess implements AutoCloseable {
+
+    private static final long HEDGE = 1_000_000;
+    private static final long MAX_HEDGE_TOKENS = 10 * HEDGE;
+    private static final int MAX_TRACKED_QUERIES = 1000;
+    private static final int THRESHOLD_UPDATE_INTERVAL = 32;
+    private static final int LATENCY_WINDOW = 10_000;
+
+    private final List<DB> replicas;
+    private final DBQueryOptions options;
+    private final double percentile;
+    private final long initialDelayNanos;
+    private final long minDelayNanos;
+    private final int minSamples;
+    private final long hedgeTokensPerQuery;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong hedgeTokens = new AtomicLong();
+    private final ConcurrentHashMap<String, QueryLatency> latencies = new ConcurrentHashMap<>();
+
+    private final LongAdder queryCount = new LongAdder();
+    private final LongAdder hedgedCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+
+    private DBHedgedAccess(Builder builder) {
+        replicas = Collections.unmodifiableList(new ArrayList<>(builder.replicas));
+        options = builder.options;
+        percentile = builder.percentile;
+        initialDelayNanos = builder.initialDelay.toNanos();
+        minDelayNanos = builder.minDelay.toNanos();
+        minSamples = builder.minSamples;
+        hedgeTokensPerQuery = Math.round(builder.budget * HEDGE);
+        if (builder.executor == null) {
+            ownedExecutor = DBAsyncAccess.createDefaultExecutor(2 * Runtime.getRuntime().availableProcessors());
+            executor = ownedExecutor;
+        } else {
+            ownedExecutor = null;
+            executor = builder.executor;
+        }
+    }
+
+    /**
+     * Starts the configuration of a new DBHedgedAccess.
+     * @param replicas the {@link DB} objects of equivalent replicas, at least two for queries to be hedged.
+     * @return a {@link Builder} to configure the DBHedgedAccess.
+     */
+    public static Builder builder(List<? extends DB> replicas) {
+        return new Builder(replicas);
+    }
+
+    /**
+     * Use this method to query the replicas.
+     * @param query SQL query, which must be idempotent.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters;
+     *                   it may be called once per attempt.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, used to process the query
+     *                          results; it may be called once per attempt, concurrently.
+     * @param <T> type of query result.
+     * @return result of the query, from the replica that answered first.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access by every attempt.
+     * @throws IllegalStateException if the calling thread is interrupted while waiting.
+     * @see DBHedgedAccess#processQuery(String, DBQueryRetrieveData)
+     */
+    public <T> T processQuery(String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData) {
+        queryCount.increment();
+        hedgeTokens.updateAndGet(tokens -> Math.min(MAX_HEDGE_TOKENS, tokens + hedgeTokensPerQuery));
+
+        QueryLatency latency = latencyOf(query);
+        // absolute, so that the hedge, submitted after the threshold wait, does not get that wait added to its time
+        long remaining = DBDeadline.remainingNanos();
+        long deadline = remaining == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + remaining;
+        BlockingQueue<Attempt<T>> completions = new ArrayBlockingQueue<>(2);
+        int replica = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+
+        Attempt<T> first = new Attempt<>(replicas.get(replica), query, querySetup, queryRetrieveData, deadline, completions);
+        Attempt<T> hedge = null;
+        executor.execute(first);
+
+        Attempt<T> done;
+        boolean firstFailed = false;
+        try {
+            done = completions.poll(latency.getThresholdNanos(), TimeUnit.NANOSECONDS);
+            if (done == null && replicas.size() > 1 && tryHedge()) {
+                hedge = new Attempt<>(replicas.get((replica + 1) % replicas.size()), query, querySetup, queryRetrieveData, deadline, completions);
+                hedgedCount.increment();
+                executor.execute(hedge);
+            }
+            if (done == null)
+                done = completions.take();
+            if (done.failure != null && hedge != null) {
+                Attempt<T> other = completions.take();
+                if (other.failure == null) {
+                    firstFailed = done == first;
+                    done = other;
+                } else
+                    done.failure.addSuppressed(other.failure);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            first.cancel();
+            if (hedge != null)
+                hedge.cancel();
+            throw new IllegalStateException("Interrupted while waiting for a replica.", ex);
+        }
+
+        if (done.failure != null)
+            throw done.failure;
+
+        // the latency of the first attempt is recorded even when the hedge wins, as the time it had run when abandoned,
+        // so that slow first attempts keep the threshold up
+        if (done == first)
+            latency.record(first.durationNanos);
+        else if (!firstFailed)
+            latency.record(System.nanoTime() - first.submittedAt);
+
+        Attempt<T> loser = done == first ? hedge : first;
+        if (loser != null)
+            loser.cancel();
+        if (done == hedge)
+            hedgeWinCount.increment();
+        return done.result;
+    }
+
+    /**
+     * Use this method to query the replicas.
+     * @param query SQL query, which must be idempotent.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, used to process the query
+     *                          results; it may be called once per attempt, concurrently.
+     * @param <T> type of query result.
+     * @return result of the query, from the replica that answered first.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access by every attempt.
+     * @throws IllegalStateException if the calling thread is interrupted while waiting.
+     * @see DBHedgedAccess#processQuery(String, DBQuerySetup, DBQueryRetrieveData)
+     */
+    public <T> T processQuery(String query, DBQueryRetrieveData<T> queryRetrieveData) {
+        return processQuery(query, stat -> { }, queryRetrieveData);
+    }
+
+    /**
+     * @param query SQL query.
+     * @return the current hedging threshold of the query.
+     */
+    public Duration getThreshold(String query) {
+        QueryLatency latency = latencies.get(DBInstrumentation.fingerprint(query));
+        return Duration.ofNanos(latency == null ? initialDelayNanos : latency.getThresholdNanos());
+    }
+
+    /**
+     * @return the number of queries run since the creation of this instance.
+     */
+    public long getQueryCount() {
+        return queryCount.sum();
+    }
+
+    /**
+     * @return the number of queries sent to a second replica.
+     */
+    public long getHedgedCount() {
+        return hedgedCount.sum();
+    }
+
+    /**
+     * @return the number of hedged queries for which the second replica answered first.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    /**
+     * Shuts down the executor if it was created by this instance.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+
+    private boolean tryHedge() {
+        while (true) {
+            long tokens = hedgeTokens.get();
+            if (tokens < HEDGE)
+                return false;
+            if (hedgeTokens.compareAndSet(tokens, tokens - HEDGE))
+                return true;
+        }
+    }
+
+    private QueryLatency latencyOf(String query) {
+        String fingerprint = DBInstrumentation.fingerprint(query);
+        QueryLatency latency = latencies.get(fingerprint);
+        if (latency == null) {
+            if (latencies.size() >= MAX_TRACKED_QUERIES)
+                latencies.clear();
+            latency = latencies.computeIfAbsent(fingerprint, key -> new QueryLatency());
+        }
+        return latency;
+    }
+
+
+    // Latencies of the first attempts of a query, and the hedging threshold derived from them.
+    private final class QueryLatency {
+
+        private final DBLatencyHistogram histogram = new DBLatencyHistogram();
+        private final AtomicInteger sinceUpdate = new AtomicInteger();
+        private volatile long thresholdNanos = -1;
+
+        long getThresholdNanos() {
+            long threshold = thresholdNanos;
+            return threshold < 0 ? initialDelayNanos : threshold;
+        }
+
+        void record(long nanos) {
+            histogram.record(nanos);
+            if (sinceUpdate.incrementAndGet() < THRESHOLD_UPDATE_INTERVAL || histogram.getCount() < minSamples)
+                return;
+
+            // only one of the threads reaching the interval recomputes the threshold
+            if (sinceUpdate.getAndSet(0) < THRESHOLD_UPDATE_INTERVAL)
+                return;
+            thresholdNanos = Math.max(minDelayNanos, histogram.getValueAtPercentile(percentile));
+            if (histogram.getCount() >= LATENCY_WINDOW)
+                histogram.reset();
+        }
+    }
+
+
+    // One execution of the query on a replica, on its own connection.
+    private final class Attempt<T> implements Runnable {
+
+        private final DB db;
+        private final String query;
+        private final DBQuerySetup querySetup;
+        private final DBQueryRetrieveData<T> queryRetrieveData;
+        private final long deadline;  // System.nanoTime() value, or Long.MAX_VALUE if there is none
+        private final long submittedAt = System.nanoTime();
+        private final BlockingQueue<Attempt<T>> completions;
+
+        // read by the calling thread after taking this attempt from the completion queue
+        T result;
+        RuntimeException failure;
+        long durationNanos;
+
+        // guarded by this, so that the statement is never cancelled once the connection may have been released
+        private PreparedStatement stat;
+        private boolean finished;
+        private boolean cancelled;
+
+        Attempt(DB db, String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData, long deadline,
+                BlockingQueue<Attempt<T>> completions)
+        {
+            this.db = db;
+            this.query = query;
+            this.querySetup = querySetup;
+            this.queryRetrieveData = queryRetrieveData;
+            this.deadline = deadline;
+            this.completions = completions;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (deadline == Long.MAX_VALUE) {
+                    result = execute();
+                } else {
+                    DBDeadline attemptDeadline = DBDeadline.start(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+                    try {
+                        result = execute();
+                    } finally {
+                        attemptDeadline.close();
+                    }
+                }
+            } catch (RuntimeException ex) {
+                failure = ex;
+            } catch (Error ex) {
+                failure = new IllegalStateException("Error while querying a replica.", ex);
+                throw ex;
+            } finally {
+                durationNanos = System.nanoTime() - submittedAt;
+                completions.add(this);
+            }
+        }
+
+        private T execute() {
+            Connection conn = null;
+            try {
+                synchronized (this) {
+                    if (cancelled)
+                        throw new CancellationException("Query cancelled before execution.");
+                }
+                conn = DBInstrumentation.getConnection(db, true);
+                return DBUtils.processQuery(conn, options, query, this::setup, queryRetrieveData);
+            } catch (SQLException ex) {
+                throw DBDeadline.wrap(ex);
+            } finally {
+                boolean cancelledDuringExecution;
+                synchronized (this) {
+                    finished = true;
+                    cancelledDuringExecution = cancelled && stat != null;
+                }
+                // a cancellation reaching the database after the statement completed could hit the next statement run on
+                // the connection, so the connection is aborted rather than reused
+                if (cancelledDuringExecution && conn != null) {
+                    try {
+                        conn.abort(Runnable::run);
+                    } catch (SQLException | RuntimeException ignore) {
+                        // closed below
+                    }
+                }
+                DBUtils.connectionSilentClose(conn);
+            }
+        }
+
+        private void setup(PreparedStatement stat) throws SQLException {
+            synchronized (this) {
+                if (cancelled)
+                    throw new CancellationException("Query cancelled before execution.");
+                this.stat = stat;
+            }
+            querySetup.setupPreparedStatement(stat);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (stat != null && !finished) {
+                try {
+                    stat.cancel();
+                } catch (SQLException | RuntimeException ignore) {
+                    // the query is done or its connection is gone
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBHedgedAccess}.
+     */
+    public static class Builder {
+
+        private final List<DB> replicas;
+        private DBQueryOptions options = DBQueryOptions.DEFAULT;
+        private double percentile = 95;
+        private Duration initialDelay = Duration.ofMillis(50);
+        private Duration minDelay = Duration.ofMillis(1);
+        private int minSamples = 100;
+        private double budget = 0.05;
+        private Executor executor;
+
+        private Builder(List<? extends DB> replicas) {
+            if (replicas.isEmpty())
+                throw new IllegalArgumentException("At least one replica is required.");
+            for (DB replica : replicas)
+                if (replica == null)
+                    throw new NullPointerException("replica");
+            this.replicas = new ArrayList<>(replicas);
+        }
+
+        /**
+         * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+         * @return this builder.
+         */
+        public Builder options(DBQueryOptions options) {
+            if (options == null)
+                throw new NullPointerException("options");
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * @param percentile percentile of the observed latencies of a query after which it is hedged, between 50 and 100, default 95.
+         * @return this builder.
+         */
+        public Builder percentile(double percentile) {
+            if (percentile < 50 || percentile > 100)
+                throw new IllegalArgumentException("percentile must be between 50 and 100: " + percentile);
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param initialDelay delay after which a query is hedged until enough of its executions were observed, default 50 ms.
+         * @return this builder.
+         */
+        public Builder initialDelay(Duration initialDelay) {
+            if (initialDelay.isNegative())
+                throw new IllegalArgumentException("initialDelay cannot be negative: " + initialDelay);
+            this.initialDelay = initialDelay;
+            return this;
+        }
+
+        /**
+         * @param minDelay lower bound of the adaptive threshold, so that very fast queries are not hedged because of
+         *                 jitter, default 1 ms.
+         * @return this builder.
+         */
+        public Builder minDelay(Duration minDelay) {
+            if (minDelay.isNegative())
+                throw new IllegalArgumentException("minDelay cannot be negative: " + minDelay);
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * @param minSamples number of executions of a query to observe before using the adaptive threshold, default 100.
+         * @return this builder.
+         */
+        public Builder minSamples(int minSamples) {
+            if (minSamples < 1)
+                throw new IllegalArgumentException("minSamples must be at least 1: " + minSamples);
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @param budget maximum fraction of the queries that may be hedged, between 0 (no hedging) and 1, default 0.05.
+         * @return this builder.
+         */
+        public Builder budget(double budget) {
+            if (!(budget >= 0 && budget <= 1))
+                throw new IllegalArgumentException("budget must be between 0 and 1: " + budget);
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * @param executor the Executor running the queries, not shut down by {@link DBHedgedAccess#close()}. It should be
+         *                 able to run two tasks per concurrent query. By default, virtual threads are used if available,
+         *                 or a pool of two threads per processor otherwise.
+         * @return this builder.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBHedgedAccess}.
+         */
+        public DBHedgedAccess build() {
+            return new DBHedgedAccess(this);
+        }
+    }
+}
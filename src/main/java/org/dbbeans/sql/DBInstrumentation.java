@@ -0,0 +1,166 @@
+package org.dbbeans.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link DBListener}s notified of database operations.
+ *
+ * When no listener is registered, operations are not timed and the only overhead is a single volatile read per operation.
+ */
+public final class DBInstrumentation {
+
+    private static final DBListener[] NO_LISTENERS = new DBListener[0];
+    private static final int FINGERPRINT_CACHE_SIZE = 4096;
+
+    private static volatile DBListener[] listeners = NO_LISTENERS;
+    private static volatile boolean captureParameters = false;
+
+    private static final ConcurrentHashMap<String, String> fingerprints = new ConcurrentHashMap<>();
+    private static final ThreadLocal<long[]> pendingAcquireNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    private DBInstrumentation() { }
+
+    /**
+     * Registers a listener. Registering the same listener twice has no effect.
+     * @param listener the {@link DBListener} to be notified of database operations.
+     */
+    public static synchronized void addListener(DBListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener");
+        for (DBListener registered : listeners)
+            if (registered == listener)
+                return;
+
+        DBListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+        captureParameters = captureParameters || listener.capturesParameters();
+    }
+
+    /**
+     * Unregisters a listener.
+     * @param listener the {@link DBListener} not to be notified anymore.
+     */
+    public static synchronized void removeListener(DBListener listener) {
+        listeners = Arrays.stream(listeners).filter(registered -> registered != listener).toArray(DBListener[]::new);
+        captureParameters = Arrays.stream(listeners).anyMatch(DBListener::capturesParameters);
+    }
+
+    /**
+     * @return true if at least one listener is registered.
+     */
+    public static boolean isEnabled() {
+        return listeners.length > 0;
+    }
+
+    static boolean capturesParameters() {
+        return captureParameters;
+    }
+
+    /**
+     * Returns a normalized version of an SQL query, used to group executions of the same query with different literal
+     * values: string and numeric literals are replaced by '?' and whitespace sequences by a single space.
+     * @param sql SQL query.
+     * @return the fingerprint of the query.
+     */
+    public static String fingerprint(String sql) {
+        String fingerprint = fingerprints.get(sql);
+        if (fingerprint == null) {
+            fingerprint = computeFingerprint(sql);
+            if (fingerprints.size() >= FINGERPRINT_CACHE_SIZE)
+                fingerprints.clear();
+            fingerprints.put(sql, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static String computeFingerprint(String sql) {
+        StringBuilder fingerprint = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                ++i;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'')
+                            i += 2;
+                        else
+                            break;
+                    } else
+                        ++i;
+                }
+                ++i;
+                fingerprint.append('?');
+            } else if (Character.isDigit(c) && !isIdentifierPart(fingerprint)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    ++i;
+                fingerprint.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i)))
+                    ++i;
+                if (fingerprint.length() > 0 && i < length)
+                    fingerprint.append(' ');
+            } else {
+                fingerprint.append(c);
+                ++i;
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    private static boolean isIdentifierPart(StringBuilder fingerprint) {
+        if (fingerprint.length() == 0)
+            return false;
+        char previous = fingerprint.charAt(fingerprint.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$' || previous == '"';
+    }
+
+    static Connection getConnection(DB db, boolean read) throws SQLException {
+        DBDeadline.check("obtaining a connection");
+
+        DBListener[] current = listeners;
+        if (current.length == 0)
+            return read ? db.getReadConnection() : db.getConnection();
+
+        long start = System.nanoTime();
+        try {
+            Connection conn = read ? db.getReadConnection() : db.getConnection();
+            connectionAcquired(current, System.nanoTime() - start, null);
+            return conn;
+        } catch (SQLException | RuntimeException ex) {
+            connectionAcquired(current, System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    private static void connectionAcquired(DBListener[] current, long durationNanos, Throwable failure) {
+        pendingAcquireNanos.get()[0] = durationNanos;
+        for (DBListener listener : current) {
+            try {
+                listener.connectionAcquired(durationNanos, failure);
+            } catch (RuntimeException ignore) { }
+        }
+    }
+
+    // Connection acquisition time is attributed to the first statement executed afterwards on the same thread.
+    static long takePendingAcquireNanos() {
+        long[] pending = pendingAcquireNanos.get();
+        long nanos = pending[0];
+        pending[0] = 0;
+        return nanos;
+    }
+
+    static void statementCompleted(DBStatementEvent event) {
+        for (DBListener listener : listeners) {
+            try {
+                listener.statementCompleted(event);
+            } catch (RuntimeException ignore) { }
+        }
+    }
+}
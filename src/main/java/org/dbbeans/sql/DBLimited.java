@@ -0,0 +1,577 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import java.time.Duration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class implements the {@link DB} interface on top of another DB, limiting the number of connections in use at the
+ * same time, so that a slow database sees a bounded load and callers are turned away quickly instead of piling up.
+ *
+ * A connection counts against the limit from the moment it is obtained until it is closed. Callers above the limit wait
+ * in a queue. A caller is rejected right away, with a SQLTransientConnectionException, when its queue is full or when the
+ * expected wait (estimated from the queue length, the limit and the average time connections are held) exceeds the
+ * maximum queue wait; a caller still waiting after the maximum queue wait is rejected too. The {@link DBDeadline} of the
+ * thread also bounds the wait, in which case a SQLTimeoutException is thrown.
+ *
+ * The limit is either fixed, or adaptive (see {@link Builder#adaptiveLimit(int, int, int, Duration)}): it then follows
+ * an AIMD scheme, growing by one for every limit connections held less than the target time while the limit is in use,
+ * and shrinking by 10% whenever a connection is held longer than the target time or cannot be obtained from the
+ * underlying DB. Connections obtained before the last decrease do not shrink the limit again, so that a burst of slow
+ * connections shrinks it once rather than once per connection.
+ *
+ * Callers are sorted in lanes, for instance interactive and batch (see {@link Builder#lane(String, int)}); use
+ * {@link DBLimited#lane(String)} to obtain the DB of a lane. Waiting callers are admitted by weighted fair queueing
+ * between the lanes: a lane of weight 3 gets three times as many connections as a lane of weight 1 when both have
+ * callers waiting, and callers of the same lane are admitted in order. {@link DBLimited#getConnection()} uses the first
+ * lane.
+ */
+public class DBLimited implements DB {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double HOLD_TIME_SMOOTHING = 0.1;
+
+    private final DB db;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetHoldNanos;
+    private final long maxQueueWaitNanos;
+    private final int maxQueueLength;
+    private final Map<String, Lane> lanes;
+    private final Lane defaultLane;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private double limit;
+    private int inFlight;
+    private int queueLength;
+    private double virtualTime;
+    private double averageHoldNanos;
+    private long lastBackoffAt;
+
+    private DBLimited(Builder builder) {
+        db = builder.db;
+        lastBackoffAt = System.nanoTime();
+        limit = builder.initialLimit;
+        minLimit = builder.minLimit;
+        maxLimit = builder.maxLimit;
+        targetHoldNanos = builder.targetHoldTime == null ? 0 : builder.targetHoldTime.toNanos();
+        maxQueueWaitNanos = builder.maxQueueWait.toNanos();
+        maxQueueLength = builder.maxQueueLength;
+
+        Map<String, Lane> laneMap = new LinkedHashMap<>();
+        if (builder.laneWeights.isEmpty())
+            laneMap.put("default", new Lane("default", 1));
+        for (Map.Entry<String, Integer> lane : builder.laneWeights.entrySet())
+            laneMap.put(lane.getKey(), new Lane(lane.getKey(), lane.getValue()));
+        lanes = Collections.unmodifiableMap(laneMap);
+        defaultLane = lanes.values().iterator().next();
+    }
+
+    /**
+     * Starts the configuration of a new DBLimited.
+     * @param db the {@link DB} to limit, typically a {@link DBPooled} or a {@link DBFromDataSource}.
+     * @return a {@link Builder} to configure the DBLimited.
+     */
+    public static Builder builder(DB db) {
+        return new Builder(db);
+    }
+
+    /**
+     * Obtains a connection in the first lane.
+     * @return a Connection from the underlying DB; closing it frees its place.
+     * @throws SQLException if a database error occurs, if the caller is rejected (in which case a
+     * SQLTransientConnectionException is thrown) or if the {@link DBDeadline} of the thread expires while waiting (in
+     * which case a SQLTimeoutException is thrown).
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return defaultLane.getConnection();
+    }
+
+    /**
+     * Obtains a read connection in the first lane.
+     * @return a Connection from {@link DB#getReadConnection()} of the underlying DB; closing it frees its place.
+     * @throws SQLException if a database error occurs, if the caller is rejected or if the {@link DBDeadline} of the thread expires while waiting.
+     * @see DBLimited#getConnection()
+     */
+    @Override
+    public Connection getReadConnection() throws SQLException {
+        return defaultLane.getReadConnection();
+    }
+
+    /**
+     * @param name the name of a lane declared with {@link Builder#lane(String, int)}.
+     * @return the {@link DB} obtaining its connections in the lane.
+     * @throws IllegalArgumentException if no such lane was declared.
+     */
+    public DB lane(String name) {
+        Lane lane = lanes.get(name);
+        if (lane == null)
+            throw new IllegalArgumentException("Unknown lane: " + name);
+        return lane;
+    }
+
+    /**
+     * @return the names of the lanes, in declaration order.
+     */
+    public List<String> getLaneNames() {
+        return new ArrayList<>(lanes.keySet());
+    }
+
+    /**
+     * @return the current limit of connections in use.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of connections currently in use.
+     */
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of callers currently waiting, all lanes included.
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return queueLength;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param lane the name of a lane.
+     * @return the number of callers currently waiting in the lane.
+     * @throws IllegalArgumentException if no such lane was declared.
+     */
+    public int getQueueLength(String lane) {
+        Lane found = (Lane) lane(lane);
+        lock.lock();
+        try {
+            return found.waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of connections handed out since the creation of this instance.
+     */
+    public long getAdmittedCount() {
+        long count = 0;
+        for (Lane lane : lanes.values())
+            count += lane.admitted.sum();
+        return count;
+    }
+
+    /**
+     * @param lane the name of a lane.
+     * @return the number of connections handed out in the lane.
+     * @throws IllegalArgumentException if no such lane was declared.
+     */
+    public long getAdmittedCount(String lane) {
+        return ((Lane) lane(lane)).admitted.sum();
+    }
+
+    /**
+     * @return the number of callers rejected or timed out since the creation of this instance.
+     */
+    public long getRejectedCount() {
+        long count = 0;
+        for (Lane lane : lanes.values())
+            count += lane.rejected.sum();
+        return count;
+    }
+
+    /**
+     * @param lane the name of a lane.
+     * @return the number of callers of the lane rejected or timed out.
+     * @throws IllegalArgumentException if no such lane was declared.
+     */
+    public long getRejectedCount(String lane) {
+        return ((Lane) lane(lane)).rejected.sum();
+    }
+
+    /**
+     * @return the average time connections are held, smoothed over recent connections.
+     */
+    public Duration getAverageHoldTime() {
+        lock.lock();
+        try {
+            return Duration.ofNanos((long) averageHoldNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "DBLimited{limit=" + (int) limit + ", inFlight=" + inFlight + ", queueLength=" + queueLength
+                    + ", admitted=" + getAdmittedCount() + ", rejected=" + getRejectedCount() + "}";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(Lane lane) throws SQLException {
+        long deadlineRemaining = DBDeadline.remainingNanos();
+        long timeoutNanos = Math.min(maxQueueWaitNanos, deadlineRemaining);
+        long start = System.nanoTime();
+
+        lock.lock();
+        try {
+            if (queueLength == 0 && inFlight < (int) limit) {
+                ++inFlight;
+                return;
+            }
+
+            if (lane.waiters.size() >= maxQueueLength)
+                throw reject(lane, new SQLTransientConnectionException(
+                        "Lane " + lane.name + " rejected the request: " + maxQueueLength + " requests already waiting."));
+            double expectedWaitNanos = averageHoldNanos * (queueLength + 1) / Math.max(1, (int) limit);
+            if (averageHoldNanos > 0 && expectedWaitNanos > maxQueueWaitNanos)
+                throw reject(lane, new SQLTransientConnectionException(
+                        "Lane " + lane.name + " rejected the request: expected wait of " + Duration.ofNanos((long) expectedWaitNanos)
+                                + " exceeds " + Duration.ofNanos(maxQueueWaitNanos) + " (" + queueLength + " waiting, limit " + (int) limit + ")."));
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            if (lane.waiters.isEmpty())
+                lane.virtualStart = Math.max(lane.virtualStart, virtualTime);
+            lane.waiters.addLast(waiter);
+            ++queueLength;
+
+            try {
+                long remaining = timeoutNanos - (System.nanoTime() - start);
+                while (!waiter.admitted && remaining > 0)
+                    remaining = waiter.condition.awaitNanos(remaining);
+            } catch (InterruptedException ex) {
+                if (waiter.admitted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                dequeue(lane, waiter);
+                Thread.currentThread().interrupt();
+                throw reject(lane, new SQLTransientConnectionException("Interrupted while waiting for a connection.", ex));
+            }
+
+            if (waiter.admitted)
+                return;
+            dequeue(lane, waiter);
+            if (deadlineRemaining < maxQueueWaitNanos)
+                throw reject(lane, new SQLTimeoutException("Deadline expired while waiting in lane " + lane.name + "."));
+            throw reject(lane, new SQLTransientConnectionException(
+                    "Lane " + lane.name + " rejected the request after waiting " + Duration.ofNanos(maxQueueWaitNanos) + "."));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called with lock held
+    private SQLException reject(Lane lane, SQLException ex) {
+        lane.rejected.increment();
+        return ex;
+    }
+
+    // called with lock held
+    private void dequeue(Lane lane, Waiter waiter) {
+        lane.waiters.remove(waiter);
+        --queueLength;
+    }
+
+    private void release(long start, boolean failed) {
+        long holdNanos = System.nanoTime() - start;
+        lock.lock();
+        try {
+            int used = inFlight;
+            --inFlight;
+
+            if (!failed)
+                averageHoldNanos = averageHoldNanos == 0 ? holdNanos : averageHoldNanos + HOLD_TIME_SMOOTHING * (holdNanos - averageHoldNanos);
+
+            if (targetHoldNanos > 0) {
+                if (failed || holdNanos > targetHoldNanos) {
+                    // at most one decrease per round of connections: those obtained before the last one are ignored
+                    if (start - lastBackoffAt >= 0) {
+                        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                        lastBackoffAt = System.nanoTime();
+                    }
+                } else if (used * 2 >= limit)
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            admitWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Start-time fair queueing: the waiting lane with the smallest virtual start time is served first, and serving a
+    // lane advances its virtual start time by the inverse of its weight. Called with lock held.
+    private void admitWaiters() {
+        while (queueLength > 0 && inFlight < (int) limit) {
+            Lane next = null;
+            for (Lane lane : lanes.values())
+                if (!lane.waiters.isEmpty() && (next == null || lane.virtualStart < next.virtualStart))
+                    next = lane;
+
+            Waiter waiter = next.waiters.removeFirst();
+            --queueLength;
+            virtualTime = next.virtualStart;
+            next.virtualStart += 1.0 / next.weight;
+
+            ++inFlight;
+            waiter.admitted = true;
+            waiter.condition.signal();
+        }
+    }
+
+
+    private static final class Waiter {
+
+        final Condition condition;
+        boolean admitted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+
+    // A lane is also the DB handed out by lane(String).
+    private final class Lane implements DB {
+
+        final String name;
+        final int weight;
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        final LongAdder admitted = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        double virtualStart;
+
+        Lane(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return obtain(false);
+        }
+
+        @Override
+        public Connection getReadConnection() throws SQLException {
+            return obtain(true);
+        }
+
+        private Connection obtain(boolean read) throws SQLException {
+            acquire(this);
+            long start = System.nanoTime();
+            Connection conn;
+            try {
+                conn = read ? db.getReadConnection() : db.getConnection();
+            } catch (SQLException | RuntimeException ex) {
+                release(start, true);
+                throw ex;
+            }
+            admitted.increment();
+            return (Connection) Proxy.newProxyInstance(
+                    DBLimited.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new LimitedConnection(conn, start));
+        }
+
+        @Override
+        public String toString() {
+            return "DBLimited.Lane{" + name + ", weight=" + weight + "}";
+        }
+    }
+
+
+    // Frees its place in the limit when closed, once.
+    private final class LimitedConnection implements InvocationHandler {
+
+        private final Connection conn;
+        private final long start;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        LimitedConnection(Connection conn, long start) {
+            this.conn = conn;
+            this.start = start;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        try {
+                            conn.close();
+                        } finally {
+                            release(start, false);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || conn.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Limited[" + conn + "]";
+            }
+
+            if (closed.get())
+                throw new SQLException("Connection has been closed.");
+
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBLimited} instance.
+     */
+    public static class Builder {
+
+        private final DB db;
+        private int initialLimit = 10;
+        private int minLimit = 10;
+        private int maxLimit = 10;
+        private Duration targetHoldTime;
+        private Duration maxQueueWait = Duration.ofSeconds(1);
+        private int maxQueueLength = 1000;
+        private final Map<String, Integer> laneWeights = new LinkedHashMap<>();
+
+        private Builder(DB db) {
+            if (db == null)
+                throw new NullPointerException("db");
+            this.db = db;
+        }
+
+        /**
+         * Sets a fixed limit, like a semaphore.
+         * @param limit maximum number of connections in use at the same time, default 10.
+         * @return this builder.
+         */
+        public Builder limit(int limit) {
+            if (limit < 1)
+                throw new IllegalArgumentException("limit must be at least 1: " + limit);
+            initialLimit = minLimit = maxLimit = limit;
+            targetHoldTime = null;
+            return this;
+        }
+
+        /**
+         * Sets an adaptive limit, which shrinks when connections are held longer than the target time and grows otherwise.
+         * Use it when operations are short and similar, so that the time connections are held reflects the latency of
+         * the database.
+         * @param initialLimit initial limit.
+         * @param minLimit the limit never goes below this value.
+         * @param maxLimit the limit never goes above this value, typically the size of the underlying pool.
+         * @param targetHoldTime connections held longer than this signal an overloaded database.
+         * @return this builder.
+         */
+        public Builder adaptiveLimit(int initialLimit, int minLimit, int maxLimit, Duration targetHoldTime) {
+            if (minLimit < 1)
+                throw new IllegalArgumentException("minLimit must be at least 1: " + minLimit);
+            if (initialLimit < minLimit || initialLimit > maxLimit)
+                throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit: " + initialLimit);
+            if (targetHoldTime.isNegative() || targetHoldTime.isZero())
+                throw new IllegalArgumentException("targetHoldTime must be positive: " + targetHoldTime);
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.targetHoldTime = targetHoldTime;
+            return this;
+        }
+
+        /**
+         * @param maxQueueWait maximum time a caller waits for a place, default 1 second. Callers whose expected wait
+         *                     exceeds it are rejected right away.
+         * @return this builder.
+         */
+        public Builder maxQueueWait(Duration maxQueueWait) {
+            if (maxQueueWait.isNegative())
+                throw new IllegalArgumentException("maxQueueWait cannot be negative: " + maxQueueWait);
+            this.maxQueueWait = maxQueueWait;
+            return this;
+        }
+
+        /**
+         * @param maxQueueLength maximum number of callers waiting in each lane, default 1000.
+         * @return this builder.
+         */
+        public Builder maxQueueLength(int maxQueueLength) {
+            if (maxQueueLength < 0)
+                throw new IllegalArgumentException("maxQueueLength cannot be negative: " + maxQueueLength);
+            this.maxQueueLength = maxQueueLength;
+            return this;
+        }
+
+        /**
+         * Declares a lane. Without lanes, a single lane named "default" is used.
+         * @param name name of the lane, see {@link DBLimited#lane(String)}.
+         * @param weight share of the connections given to the lane when several lanes have callers waiting.
+         * @return this builder.
+         */
+        public Builder lane(String name, int weight) {
+            if (name == null)
+                throw new NullPointerException("name");
+            if (weight < 1)
+                throw new IllegalArgumentException("weight must be at least 1: " + weight);
+            if (laneWeights.containsKey(name))
+                throw new IllegalArgumentException("Duplicate lane: " + name);
+            laneWeights.put(name, weight);
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBLimited}.
+         */
+        public DBLimited build() {
+            return new DBLimited(this);
+        }
+    }
+}
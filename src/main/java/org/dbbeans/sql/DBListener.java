@@ -0,0 +1,35 @@
+package org.dbbeans.sql;
+
+/**
+ * Implement this interface and register your implementation with {@link DBInstrumentation#addListener(DBListener)}
+ * to be notified of the database operations performed by {@link DBUtils}, {@link DBAccess} and {@link DBTransaction}.
+ *
+ * Listeners are called synchronously, on the thread performing the operation, and must therefore be fast and thread-safe.
+ * Exceptions thrown by listeners are ignored.
+ */
+public interface DBListener {
+
+    /**
+     * Called after {@link DBAccess} or {@link DBTransaction} obtained a connection from their {@link DB}, or failed to.
+     * @param durationNanos how long it took to obtain the connection, in nanoseconds.
+     * @param failure the exception thrown by the DB, or null if a connection was obtained.
+     */
+    default void connectionAcquired(long durationNanos, Throwable failure) { }
+
+    /**
+     * Called when a statement has been executed and its results processed, or when it failed.
+     * @param event a {@link DBStatementEvent} describing the execution of the statement.
+     */
+    default void statementCompleted(DBStatementEvent event) { }
+
+    /**
+     * Return true to have the parameters set by {@link DBQuerySetup} implementations recorded in the events, see
+     * {@link DBStatementEvent#getParameters()}. Recording requires wrapping each statement in a proxy, so only
+     * listeners actually using the parameters should return true. This method is called once, when the listener is registered.
+     * @return true if the listener needs statement parameters, false by default.
+     */
+    default boolean capturesParameters() {
+        return false;
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.dbbeans.sql;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to long values, stored in primitive arrays without boxing.
+ *
+ * This class is filled by {@link DBPrimitiveColumns#longLongMap(int, int)} and is meant for id to value lookups on
+ * large query results. It uses open addressing with linear probing and is not thread-safe.
+ */
+public final class DBLongLongMap {
+
+    private long[] keys;
+    private long[] values;
+    private int size = 0;
+    private int mask;
+
+    // key 0 is the marker of free slots, so its value is kept apart
+    private boolean hasZeroKey = false;
+    private long zeroValue;
+
+    /**
+     * Creates an empty map.
+     */
+    public DBLongLongMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map able to hold the specified number of entries without resizing.
+     * @param expectedSize expected number of entries.
+     */
+    public DBLongLongMap(int expectedSize) {
+        int capacity = DBLongMap.tableSize(expectedSize);
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param key the key to look up.
+     * @param defaultValue the value returned if the key is not in the map.
+     * @return the value associated with the key, or defaultValue if there is none.
+     */
+    public long get(long key, long defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+
+        for (int slot = DBLongMap.hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return values[slot];
+        return defaultValue;
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return true if the map contains the key.
+     */
+    public boolean containsKey(long key) {
+        if (key == 0)
+            return hasZeroKey;
+
+        for (int slot = DBLongMap.hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return true;
+        return false;
+    }
+
+    /**
+     * Associates a value with a key, replacing the previous value if any.
+     * @param key the key.
+     * @param value the value.
+     */
+    public void put(long key, long value) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                ++size;
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+
+        int slot = DBLongMap.hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > DBLongMap.maxFill(keys.length))
+            resize();
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = DBLongMap.hash(oldKeys[i]) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @return the number of entries in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the map contains no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the keys of the map, in no particular order.
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        if (hasZeroKey)
+            result[count++] = 0;
+        for (long key : keys)
+            if (key != 0)
+                result[count++] = key;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        long[] sortedKeys = keys();
+        Arrays.sort(sortedKeys);
+        StringBuilder description = new StringBuilder("{");
+        for (int i = 0; i < sortedKeys.length; ++i) {
+            if (i > 0)
+                description.append(", ");
+            description.append(sortedKeys[i]).append('=').append(get(sortedKeys[i], 0));
+        }
+        return description.append('}').toString();
+    }
+}
@@ -0,0 +1,186 @@
+package org.dbbeans.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map from long keys to objects, storing the keys in a primitive array without boxing.
+ *
+ * This class is filled by {@link DBPrimitiveColumns#longMap(int, DBRowMapper)} and is meant for id to object lookups
+ * on large query results. It uses open addressing with linear probing and is not thread-safe. Null values are not allowed.
+ * @param <V> type of the values.
+ */
+public final class DBLongMap<V> {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size = 0;
+    private int mask;
+
+    // key 0 is the marker of free slots, so its value is kept apart
+    private V zeroValue = null;
+
+    /**
+     * Creates an empty map.
+     */
+    public DBLongMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map able to hold the specified number of entries without resizing.
+     * @param expectedSize expected number of entries.
+     */
+    public DBLongMap(int expectedSize) {
+        int capacity = tableSize(expectedSize);
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    static int tableSize(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("expectedSize cannot be negative: " + expectedSize);
+        int capacity = Integer.highestOneBit(Math.max(4, (int) Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+        if (capacity <= 0)
+            throw new IllegalArgumentException("expectedSize is too large: " + expectedSize);
+        return capacity;
+    }
+
+    static int maxFill(int capacity) {
+        return (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return the value associated with the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == 0)
+            return zeroValue;
+
+        for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return (V) values[slot];
+        return null;
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return true if the map contains the key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates a value with a key, replacing the previous value if any.
+     * @param key the key.
+     * @param value the value, not null.
+     */
+    public void put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("value");
+
+        if (key == 0) {
+            if (zeroValue == null)
+                ++size;
+            zeroValue = value;
+            return;
+        }
+
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > maxFill(keys.length))
+            resize();
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @return the number of entries in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the map contains no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the keys of the map, in no particular order.
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        if (zeroValue != null)
+            result[count++] = 0;
+        for (long key : keys)
+            if (key != 0)
+                result[count++] = key;
+        return result;
+    }
+
+    /**
+     * @return the values of the map, in the same order as {@link DBLongMap#keys()}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        if (zeroValue != null)
+            result.add(zeroValue);
+        for (int i = 0; i < keys.length; ++i)
+            if (keys[i] != 0)
+                result.add((V) values[i]);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        long[] sortedKeys = keys();
+        Arrays.sort(sortedKeys);
+        StringBuilder description = new StringBuilder("{");
+        for (int i = 0; i < sortedKeys.length; ++i) {
+            if (i > 0)
+                description.append(", ");
+            description.append(sortedKeys[i]).append('=').append(get(sortedKeys[i]));
+        }
+        return description.append('}').toString();
+    }
+}
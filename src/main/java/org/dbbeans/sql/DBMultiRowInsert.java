@@ -0,0 +1,231 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rewrites a single-row INSERT ... VALUES (?, ...) query into multi-row INSERT ... VALUES (?, ...), (?, ...) queries.
+ *
+ * Only a few row counts (buckets) are used, so that the same statements come back and can be reused by a statement
+ * cache: the rows are sent by groups of the largest bucket, and the remaining rows are split into smaller buckets.
+ * The largest bucket is limited so that a statement never has more than maxParameters parameters.
+ */
+final class DBMultiRowInsert {
+
+    private static final int[] BUCKETS = { 1, 4, 16, 64, 256, 1024 };
+    private static final int TEMPLATE_CACHE_SIZE = 4096;
+    private static final ConcurrentHashMap<String, DBMultiRowInsert> TEMPLATES = new ConcurrentHashMap<>();
+
+    private final String prefix;
+    private final String tuple;
+    private final String suffix;
+    private final int rowParameters;
+    private final int[] buckets;
+    private final String[] queries;
+
+    private DBMultiRowInsert(String query, int maxParameters) {
+        String upper = query.toUpperCase(Locale.ROOT);
+        int values = -1;
+        int open = -1;
+        int close = -1;
+        int parameters = 0;
+        int depth = 0;
+        for (int i = 0; i < query.length(); ++i) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = skipQuoted(query, i, c);
+            } else if (c == '?') {
+                if (open < 0 || close >= 0)
+                    throw new IllegalArgumentException("Parameters are only supported in the VALUES tuple of a multi-row insert: " + query);
+                ++parameters;
+            } else if (c == '(') {
+                if (depth++ == 0 && values >= 0 && open < 0)
+                    open = i;
+            } else if (c == ')') {
+                if (--depth == 0 && open >= 0 && close < 0)
+                    close = i;
+            } else if (values < 0 && depth == 0 && upper.startsWith("VALUES", i)
+                    && (i == 0 || !Character.isJavaIdentifierPart(query.charAt(i - 1)))
+                    && (i + 6 == query.length() || !Character.isJavaIdentifierPart(query.charAt(i + 6)))) {
+                values = i + "VALUES".length();
+            }
+        }
+        if (!upper.trim().startsWith("INSERT") || values < 0 || close < 0 || !query.substring(values, open).trim().isEmpty())
+            throw new IllegalArgumentException("Not a single-row INSERT ... VALUES (...) query: " + query);
+        if (parameters == 0)
+            throw new IllegalArgumentException("No parameter in the VALUES tuple: " + query);
+
+        prefix = query.substring(0, values) + " ";
+        tuple = query.substring(open, close + 1);
+        suffix = query.substring(close + 1);
+        rowParameters = parameters;
+
+        int maxRows = Math.max(1, maxParameters / parameters);
+        int count = 1;
+        while (count < BUCKETS.length && BUCKETS[count] <= maxRows)
+            ++count;
+        buckets = new int[count];
+        System.arraycopy(BUCKETS, 0, buckets, 0, count);
+        queries = new String[count];
+    }
+
+    private static int skipQuoted(String query, int start, char quote) {
+        int i = start + 1;
+        while (i < query.length()) {
+            if (query.charAt(i) == quote) {
+                if (i + 1 < query.length() && query.charAt(i + 1) == quote)
+                    ++i;
+                else
+                    return i;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * @param query single-row INSERT ... VALUES (?, ...) query, whose parameters are all in the VALUES tuple.
+     * @param maxParameters maximum number of parameters of a statement.
+     * @return the rewriting of the query, cached.
+     * @throws IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES tuple only.
+     */
+    static DBMultiRowInsert of(String query, int maxParameters) {
+        if (maxParameters < 1)
+            throw new IllegalArgumentException("maxParameters must be at least 1: " + maxParameters);
+
+        String key = maxParameters + ":" + query;
+        DBMultiRowInsert template = TEMPLATES.get(key);
+        if (template == null) {
+            template = new DBMultiRowInsert(query, maxParameters);
+            // bounded, for applications building their INSERT queries dynamically
+            if (TEMPLATES.size() >= TEMPLATE_CACHE_SIZE)
+                TEMPLATES.clear();
+            TEMPLATES.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * @return the number of parameters of one row.
+     */
+    int getRowParameters() {
+        return rowParameters;
+    }
+
+    /**
+     * @return the number of rows of the largest bucket.
+     */
+    int getMaxRows() {
+        return buckets[buckets.length - 1];
+    }
+
+    /**
+     * @return the number of buckets.
+     */
+    int getBucketCount() {
+        return buckets.length;
+    }
+
+    /**
+     * @param rows a number of rows, at least 1.
+     * @return the index of the largest bucket not larger than rows.
+     */
+    int bucketFor(int rows) {
+        int bucket = buckets.length - 1;
+        while (buckets[bucket] > rows)
+            --bucket;
+        return bucket;
+    }
+
+    /**
+     * @param bucket a bucket index.
+     * @return the number of rows of the bucket.
+     */
+    int getRows(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * @param bucket a bucket index.
+     * @return the query inserting the number of rows of the bucket.
+     */
+    String getQuery(int bucket) {
+        String query = queries[bucket];
+        if (query == null) {
+            int rows = buckets[bucket];
+            StringBuilder sql = new StringBuilder(prefix.length() + rows * (tuple.length() + 2) + suffix.length());
+            sql.append(prefix);
+            for (int i = 0; i < rows; ++i) {
+                if (i > 0)
+                    sql.append(", ");
+                sql.append(tuple);
+            }
+            sql.append(suffix);
+            query = sql.toString();
+            queries[bucket] = query;
+        }
+        return query;
+    }
+
+    /**
+     * @param stat a multi-row statement.
+     * @return a view of the statement whose parameter indexes are those of the single-row query, shifted to the row
+     * selected with {@link RowStatement#setRow(int)}.
+     */
+    RowStatement rowStatement(PreparedStatement stat) {
+        return new RowStatement(stat, rowParameters);
+    }
+
+
+    /**
+     * Shifts the parameter indexes passed to the setters of a multi-row statement.
+     */
+    static final class RowStatement implements InvocationHandler {
+
+        private final PreparedStatement stat;
+        private final int rowParameters;
+        private final PreparedStatement view;
+        private int offset;
+
+        RowStatement(PreparedStatement stat, int rowParameters) {
+            this.stat = stat;
+            this.rowParameters = rowParameters;
+            view = (PreparedStatement) Proxy.newProxyInstance(
+                    DBMultiRowInsert.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    this);
+        }
+
+        PreparedStatement setRow(int row) {
+            offset = row * rowParameters;
+            return view;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && method.getParameterTypes()[0] == int.class) {
+                int index = (Integer) args[0];
+                if (index < 1 || index > rowParameters)
+                    throw new SQLException("Parameter index " + index + " out of range, the row has " + rowParameters + " parameters.");
+                args[0] = index + offset;
+            } else if (name.equals("addBatch") || name.startsWith("execute") || name.equals("clearParameters")) {
+                throw new SQLException(name + "() cannot be called on a row of a multi-row insert.");
+            }
+
+            try {
+                return method.invoke(stat, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+}
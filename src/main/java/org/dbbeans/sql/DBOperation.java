@@ -0,0 +1,23 @@
+package org.dbbeans.sql;
+
+/**
+ * Kinds of database operations reported to {@link DBListener}s.
+ */
+public enum DBOperation {
+    /** A single update, see {@link DBUtils#processUpdate(java.sql.Connection, String, DBQuerySetup)}. */
+    UPDATE,
+    /** A single record creation, see {@link DBUtils#createRecord(java.sql.Connection, String, DBQuerySetup)}. */
+    RECORD_CREATION,
+    /** A query whose results are processed by a callback. */
+    QUERY,
+    /** Multiple updates executed by a {@link DBUpdates} callback. */
+    UPDATES,
+    /** Multiple queries executed by a {@link DBQueries} or {@link DBQueriesNoReturn} callback. */
+    QUERIES,
+    /** A JDBC batch of updates. */
+    BATCH,
+    /** A JDBC batch of record creations. */
+    RECORD_CREATIONS,
+    /** A query whose results are read through a Stream. */
+    STREAM
+}
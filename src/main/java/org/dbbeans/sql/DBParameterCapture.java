@@ -0,0 +1,108 @@
+package org.dbbeans.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the parameter values set on a PreparedStatement through a proxy, for {@link DBStatementEvent#getParameters()}
+ * and for the keys of {@link DBQueryCache}.
+ *
+ * With placeholders, values are kept as set, except for streams, readers, LOBs and arrays, which are replaced by a
+ * placeholder string so that recorded events do not retain large or single-use objects. Without a statement, the proxy
+ * only records parameters and every other method throws an SQLException.
+ */
+final class DBParameterCapture implements InvocationHandler {
+
+    private final PreparedStatement stat;
+    private final PreparedStatement proxy;
+    private final boolean placeholders;
+
+    private Object[] values = new Object[8];
+    private int count = 0;
+
+    DBParameterCapture(PreparedStatement stat) {
+        this(stat, true);
+    }
+
+    DBParameterCapture(PreparedStatement stat, boolean placeholders) {
+        this.stat = stat;
+        this.placeholders = placeholders;
+        proxy = (PreparedStatement) Proxy.newProxyInstance(
+                DBParameterCapture.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                this);
+    }
+
+    PreparedStatement getProxy() {
+        return proxy;
+    }
+
+    List<Object> getValues() {
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(values).subList(0, count)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        boolean parameter = name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer;
+        if (name.equals("clearParameters")) {
+            Arrays.fill(values, null);
+            count = 0;
+        } else if (parameter)
+            record((Integer) args[0], name.equals("setNull") ? null : placeholders ? placeholder(args[1]) : args[1]);
+
+        if (stat == null) {
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ParameterCapture" + getValues();
+            }
+            if (parameter || name.equals("clearParameters"))
+                return null;
+            throw new SQLException("Only parameters can be set on this statement: " + name);
+        }
+
+        try {
+            return method.invoke(stat, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private void record(int index, Object value) {
+        if (index < 1)
+            return;
+        if (index > values.length)
+            values = Arrays.copyOf(values, Math.max(index, values.length * 2));
+        values[index - 1] = value;
+        count = Math.max(count, index);
+    }
+
+    private static Object placeholder(Object value) {
+        if (value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob
+                || value instanceof Array)
+            return "<" + value.getClass().getSimpleName() + ">";
+        if (value instanceof byte[])
+            return "<byte[" + ((byte[]) value).length + "]>";
+        return value;
+    }
+}
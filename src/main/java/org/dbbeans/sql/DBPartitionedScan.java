@@ -0,0 +1,516 @@
+package org.dbbeans.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class reads a large table in parallel, by splitting a numeric key space into ranges and querying each range on
+ * its own connection.
+ *
+ * The query must select the rows of one range through two parameters bounding the key, both inclusive, for instance:
+ * SELECT id, amount FROM item WHERE id BETWEEN ? AND ?. The key space is given by bounds or found by a query returning
+ * the minimum and maximum keys, and is split into ranges of equal width. Up to parallelism ranges are read at the same
+ * time, never more than the connection budget; each range is a regular {@link DBAccess} query.
+ *
+ * Rows are mapped by the worker threads and handed over in batches, either to a consumer running in the calling thread
+ * or to a parallel Stream. Rows are not delivered in key order. If a range fails, the other ranges are abandoned and the
+ * exception is rethrown to the consumer of the rows.
+ *
+ * A DBPartitionedScan can be run several times; the key space is probed again on each run.
+ * For example:
+ * DBPartitionedScan scan = DBPartitionedScan.builder(dbAccess, "SELECT id, amount FROM item WHERE id BETWEEN ? AND ?")
+ *         .probe("SELECT MIN(id), MAX(id) FROM item").partitions(64).parallelism(8).build();
+ * scan.forEach(rs -> new Item(rs.getLong(1), rs.getLong(2)), item -> ...);
+ */
+public class DBPartitionedScan {
+
+    private static final List<Object> END = Collections.emptyList();
+    private static final RuntimeException CANCELLED = new ScanCancelledException();
+
+    private final DBAccess dbAccess;
+    private final String query;
+    private final DBQuerySetup querySetup;
+    private final int lowerParameter;
+    private final int upperParameter;
+    private final String probeQuery;
+    private final long lowerBound;
+    private final long upperBound;
+    private final int partitions;
+    private final int parallelism;
+    private final int batchSize;
+    private final Executor executor;
+
+    private DBPartitionedScan(Builder builder) {
+        if (builder.probeQuery == null && !builder.hasBounds)
+            throw new IllegalStateException("Either bounds or a probe query must be specified.");
+
+        query = builder.query;
+        querySetup = builder.querySetup;
+        lowerParameter = builder.lowerParameter;
+        upperParameter = builder.upperParameter;
+        probeQuery = builder.probeQuery;
+        lowerBound = builder.lowerBound;
+        upperBound = builder.upperBound;
+        parallelism = Math.min(builder.parallelism, builder.connectionBudget);
+        partitions = builder.partitions != 0 ? builder.partitions : 4 * parallelism;
+        batchSize = builder.batchSize;
+        executor = builder.executor;
+
+        DBQueryOptions options = builder.dbAccess.getOptions();
+        int fetchSize = builder.fetchSize != 0 ? builder.fetchSize
+                : options.getFetchSize() != 0 ? options.getFetchSize() : DBAccess.DEFAULT_STREAM_FETCH_SIZE;
+        dbAccess = builder.dbAccess.withOptions(DBQueryOptions.builder(options).fetchSize(fetchSize).forwardOnlyReadOnly().build());
+    }
+
+    /**
+     * Starts the configuration of a new scan.
+     * @param dbAccess the {@link DBAccess} used to run the queries.
+     * @param query SQL query selecting the rows whose key is between two parameters, both inclusive.
+     * @return a {@link Builder} to configure the scan.
+     */
+    public static Builder builder(DBAccess dbAccess, String query) {
+        return new Builder(dbAccess, query);
+    }
+
+    /**
+     * @return the number of ranges read at the same time, at most the connection budget.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Splits the key space into ranges, probing it if no bounds were specified.
+     * @return the ranges, as arrays containing the lower and upper keys, both inclusive; empty if the probe query found no key.
+     * @throws SQLRuntimeException if an SQLException is thrown during the probe query.
+     */
+    public List<long[]> getRanges() {
+        if (probeQuery == null)
+            return split(lowerBound, upperBound, partitions);
+
+        long[] bounds = dbAccess.processQuery(probeQuery, rs -> {
+            if (!rs.next())
+                return null;
+            long min = rs.getLong(1);
+            if (rs.wasNull())
+                return null;
+            long max = rs.getLong(2);
+            return new long[] { min, max };
+        });
+        if (bounds == null)
+            return Collections.emptyList();
+        return split(bounds[0], bounds[1], partitions);
+    }
+
+    // equal width ranges; the arithmetic wraps around but stays correct since all values are between min and max
+    static List<long[]> split(long min, long max, int partitions) {
+        if (max < min)
+            return Collections.emptyList();
+
+        long span = max - min; // unsigned
+        long count = partitions;
+        long width = Long.divideUnsigned(span, count);
+        if (width == 0) {
+            count = span + 1;
+            width = 1;
+        }
+
+        List<long[]> ranges = new ArrayList<>((int) count);
+        long lower = min;
+        for (long i = 0; i < count; ++i) {
+            long upper = i == count - 1 ? max : lower + width - 1;
+            ranges.add(new long[] { lower, upper });
+            lower = upper + 1;
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads all ranges and passes each row to the consumer, in the calling thread. Returns when all rows have been consumed.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row; it is called
+     *                  by several threads at the same time and must be thread-safe.
+     * @param consumer receives the rows, one at a time, in no particular order.
+     * @param <T> type of the rows.
+     * @throws SQLRuntimeException if an SQLException is thrown while reading a range.
+     */
+    public <T> void forEach(DBRowMapper<T> rowMapper, Consumer<? super T> consumer) {
+        Run<T> run = new Run<>(getRanges(), rowMapper);
+        try {
+            List<T> batch;
+            while ((batch = run.nextBatch()) != null)
+                for (T row : batch)
+                    consumer.accept(row);
+        } finally {
+            run.close();
+        }
+    }
+
+    /**
+     * Reads all ranges as a parallel Stream. The rows are processed by the threads of the stream (the common
+     * ForkJoinPool) while the ranges are read by the threads of the scan. The stream should be used in a
+     * try-with-resources statement, so that the scan is abandoned if the stream is not consumed entirely.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row; it is called
+     *                  by several threads at the same time and must be thread-safe.
+     * @param <T> type of the rows.
+     * @return a parallel Stream of the rows of all ranges, in no particular order.
+     * @throws SQLRuntimeException if an SQLException is thrown during the probe query; exceptions thrown while reading
+     * a range are rethrown by the terminal operation of the stream.
+     */
+    public <T> Stream<T> stream(DBRowMapper<T> rowMapper) {
+        Run<T> run = new Run<>(getRanges(), rowMapper);
+        return StreamSupport.stream(new BatchSpliterator<>(run), true).onClose(run::close);
+    }
+
+
+    // One execution of the scan: workers read ranges and put batches of rows in a queue, terminated by END.
+    private final class Run<T> {
+
+        private final List<long[]> ranges;
+        private final DBRowMapper<T> rowMapper;
+        private final BlockingQueue<List<T>> queue;
+        private final AtomicInteger nextRange = new AtomicInteger();
+        private final AtomicInteger activeWorkers;
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final ExecutorService ownedExecutor;
+
+        private volatile boolean cancelled;
+
+        Run(List<long[]> ranges, DBRowMapper<T> rowMapper) {
+            this.ranges = ranges;
+            this.rowMapper = rowMapper;
+
+            int workers = Math.min(parallelism, ranges.size());
+            queue = new ArrayBlockingQueue<>(Math.max(1, workers) * 4);
+            activeWorkers = new AtomicInteger(workers);
+            if (workers == 0) {
+                ownedExecutor = null;
+                queue.add(end());
+                return;
+            }
+
+            ownedExecutor = executor == null ? DBAsyncAccess.createDefaultExecutor(workers) : null;
+            Executor workerExecutor = executor == null ? ownedExecutor : executor;
+            for (int i = 0; i < workers; ++i)
+                workerExecutor.execute(this::work);
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<T> end() {
+            return (List<T>) END;
+        }
+
+        private void work() {
+            try {
+                int index;
+                while (!cancelled && (index = nextRange.getAndIncrement()) < ranges.size())
+                    scan(ranges.get(index));
+            } catch (RuntimeException ex) {
+                if (ex != CANCELLED && failure.compareAndSet(null, ex))
+                    cancelled = true;
+            } catch (Error ex) {
+                failure.compareAndSet(null, new IllegalStateException("Error while scanning", ex));
+                cancelled = true;
+                throw ex;
+            } finally {
+                if (activeWorkers.decrementAndGet() == 0) {
+                    if (cancelled)
+                        queue.clear();
+                    put(end());
+                }
+            }
+        }
+
+        private void scan(long[] range) {
+            dbAccess.processQuery(query, stat -> {
+                if (querySetup != null)
+                    querySetup.setupPreparedStatement(stat);
+                stat.setLong(lowerParameter, range[0]);
+                stat.setLong(upperParameter, range[1]);
+            }, rs -> {
+                List<T> batch = new ArrayList<>(batchSize);
+                while (rs.next()) {
+                    batch.add(rowMapper.mapRow(rs));
+                    if (batch.size() == batchSize) {
+                        put(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty())
+                    put(batch);
+                return null;
+            });
+        }
+
+        private void put(List<T> batch) {
+            if (cancelled && batch != END)
+                throw CANCELLED;
+            try {
+                while (!queue.offer(batch, 50, TimeUnit.MILLISECONDS)) {
+                    if (cancelled && batch != END)
+                        throw CANCELLED;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                if (batch == END)
+                    queue.clear();
+                queue.offer(batch);
+                throw CANCELLED;
+            }
+        }
+
+        // null once all rows have been returned
+        List<T> nextBatch() {
+            List<T> batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for rows.", ex);
+            }
+
+            RuntimeException ex = failure.get();
+            if (ex != null) {
+                close();
+                throw ex;
+            }
+            if (batch == END) {
+                // left in the queue for the other threads of a parallel stream
+                queue.offer(batch);
+                close();
+                return null;
+            }
+            return batch;
+        }
+
+        void close() {
+            cancelled = true;
+            // unblocks the workers, which stop at their next batch, but keeps END for the other threads of a parallel stream
+            List<List<T>> dropped = new ArrayList<>();
+            queue.drainTo(dropped);
+            for (List<T> batch : dropped)
+                if (batch == END)
+                    queue.offer(batch);
+            if (ownedExecutor != null)
+                ownedExecutor.shutdown();
+        }
+    }
+
+
+    private static final class ScanCancelledException extends RuntimeException {
+
+        ScanCancelledException() {
+            super("Scan cancelled", null, false, false);
+        }
+    }
+
+
+    private static final class BatchSpliterator<T> implements Spliterator<T> {
+
+        private final Run<T> run;
+        private Spliterator<T> current;
+
+        BatchSpliterator(Run<T> run) {
+            this.run = run;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (current == null || !current.tryAdvance(action)) {
+                List<T> batch = run.nextBatch();
+                if (batch == null)
+                    return false;
+                current = batch.spliterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            List<T> batch = run.nextBatch();
+            return batch == null ? null : batch.spliterator();
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBPartitionedScan}.
+     */
+    public static class Builder {
+
+        private final DBAccess dbAccess;
+        private final String query;
+        private DBQuerySetup querySetup;
+        private int lowerParameter = 1;
+        private int upperParameter = 2;
+        private String probeQuery;
+        private boolean hasBounds;
+        private long lowerBound;
+        private long upperBound;
+        private int partitions;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int connectionBudget = Integer.MAX_VALUE;
+        private int batchSize = 256;
+        private int fetchSize;
+        private Executor executor;
+
+        private Builder(DBAccess dbAccess, String query) {
+            if (dbAccess == null)
+                throw new NullPointerException("dbAccess");
+            if (query == null)
+                throw new NullPointerException("query");
+            this.dbAccess = dbAccess;
+            this.query = query;
+        }
+
+        /**
+         * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters
+         *                   other than the range bounds.
+         * @return this builder.
+         */
+        public Builder querySetup(DBQuerySetup querySetup) {
+            this.querySetup = querySetup;
+            return this;
+        }
+
+        /**
+         * @param lowerParameter index of the parameter receiving the lower key of a range, default 1.
+         * @param upperParameter index of the parameter receiving the upper key of a range, default 2.
+         * @return this builder.
+         */
+        public Builder rangeParameters(int lowerParameter, int upperParameter) {
+            if (lowerParameter < 1 || upperParameter < 1 || lowerParameter == upperParameter)
+                throw new IllegalArgumentException("Invalid range parameters: " + lowerParameter + ", " + upperParameter);
+            this.lowerParameter = lowerParameter;
+            this.upperParameter = upperParameter;
+            return this;
+        }
+
+        /**
+         * @param lowerBound the lowest key of the key space.
+         * @param upperBound the highest key of the key space.
+         * @return this builder.
+         */
+        public Builder bounds(long lowerBound, long upperBound) {
+            if (upperBound < lowerBound)
+                throw new IllegalArgumentException("upperBound < lowerBound: " + upperBound + " < " + lowerBound);
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            hasBounds = true;
+            probeQuery = null;
+            return this;
+        }
+
+        /**
+         * @param probeQuery SQL query returning the lowest and the highest keys in its first two columns, for instance
+         *                   SELECT MIN(id), MAX(id) FROM item. It is run at the beginning of each scan.
+         * @return this builder.
+         */
+        public Builder probe(String probeQuery) {
+            if (probeQuery == null)
+                throw new NullPointerException("probeQuery");
+            this.probeQuery = probeQuery;
+            hasBounds = false;
+            return this;
+        }
+
+        /**
+         * @param partitions number of ranges, default 4 times the parallelism. More ranges than threads compensate for
+         *                   ranges containing more rows than others.
+         * @return this builder.
+         */
+        public Builder partitions(int partitions) {
+            if (partitions < 1)
+                throw new IllegalArgumentException("partitions must be at least 1: " + partitions);
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * @param parallelism maximum number of ranges read at the same time, default the number of processors.
+         * @return this builder.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1)
+                throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param connectionBudget maximum number of connections the scan may use at the same time, capping the
+         *                         parallelism; for a {@link DBPooled}, leave room in {@link DBPooled#getMaxSize()} for
+         *                         the rest of the application.
+         * @return this builder.
+         */
+        public Builder connectionBudget(int connectionBudget) {
+            if (connectionBudget < 1)
+                throw new IllegalArgumentException("connectionBudget must be at least 1: " + connectionBudget);
+            this.connectionBudget = connectionBudget;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of rows handed over from a reading thread to the consumer at once, default 256.
+         * @return this builder.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1)
+                throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param fetchSize number of rows the driver should fetch from the database at once, default the fetch size of
+         *                  the options of the {@link DBAccess}, or {@link DBAccess#DEFAULT_STREAM_FETCH_SIZE}.
+         * @return this builder.
+         */
+        public Builder fetchSize(int fetchSize) {
+            if (fetchSize < 0)
+                throw new IllegalArgumentException("fetchSize cannot be negative: " + fetchSize);
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * @param executor the Executor running the reading threads, which must be able to run parallelism tasks at the
+         *                 same time. By default, an executor is created for each scan, using virtual threads if available.
+         * @return this builder.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBPartitionedScan}.
+         */
+        public DBPartitionedScan build() {
+            return new DBPartitionedScan(this);
+        }
+    }
+}
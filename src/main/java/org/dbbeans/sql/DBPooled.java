@@ -0,0 +1,585 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class implements the {@link DB} interface on top of another DB by keeping a bounded pool of physical connections.
+ *
+ * Connections handed out by {@link DBPooled#getConnection()} are returned to the pool when closed. Before a connection
+ * goes back to the pool, any pending transaction is rolled back and the auto-commit mode, transaction isolation and
+ * read-only flag are restored to the values the physical connection had when it was opened. {@link DBAccess} and
+ * {@link DBTransaction} can therefore use a DBPooled instance like any other DB.
+ *
+ * Idle connections are kept in a lock-free deque, most recently used first. A background daemon thread closes
+ * connections that stayed idle longer than the idle timeout and connections older than the maximum lifetime.
+ * A connection that was not used recently is validated before being handed out.
+ *
+ * The pool can optionally keep a LRU cache of PreparedStatements for each physical connection (see
+ * {@link Builder#statementCacheSize(int)}). Statements prepared with the same SQL text, generated keys mode and cursor type are then
+ * reused instead of being parsed again by the database, which benefits every method of {@link DBUtils}, and therefore
+ * of {@link DBAccess} and {@link DBTransaction}. Parameters are cleared each time a statement is returned to the cache.
+ *
+ * Use this class when no container provided DataSource is available, typically in combination with {@link DBFromJDBCDriver}.
+ * Call {@link DBPooled#close()} to release all physical connections when the pool is not needed anymore.
+ */
+public class DBPooled implements DB, AutoCloseable {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+    private static final long RETURN_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final DB db;
+    private final int maxSize;
+    private final int minIdle;
+    private final long idleTimeoutNanos;
+    private final long maxLifetimeNanos;
+    private final long connectionTimeoutNanos;
+    private final long validationWindowNanos;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    // borrowers holding a permit and waiting for a connection to be returned or discarded
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a pool of at most maxSize connections with default settings.
+     * @param db the {@link DB} used to open the physical connections.
+     * @param maxSize maximum number of physical connections kept by the pool.
+     * @see DBPooled#builder(DB)
+     */
+    public DBPooled(DB db, int maxSize) {
+        this(builder(db).maxSize(maxSize));
+    }
+
+    private DBPooled(Builder builder) {
+        db = builder.db;
+        maxSize = builder.maxSize;
+        minIdle = builder.minIdle;
+        idleTimeoutNanos = builder.idleTimeout.toNanos();
+        maxLifetimeNanos = builder.maxLifetime.toNanos();
+        connectionTimeoutNanos = builder.connectionTimeout.toNanos();
+        validationWindowNanos = builder.validationWindow.toNanos();
+        validationTimeoutSeconds = (int) Math.max(1, builder.validationTimeout.getSeconds());
+        statementCacheSize = builder.statementCacheSize;
+
+        permits = new Semaphore(maxSize);
+
+        final String threadName = "dbbeans-pool-" + POOL_COUNTER.incrementAndGet();
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = builder.housekeepingPeriod.toMillis();
+        housekeeper.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the configuration of a new pool.
+     * @param db the {@link DB} used to open the physical connections.
+     * @return a {@link Builder} to configure the pool.
+     */
+    public static Builder builder(DB db) {
+        return new Builder(db);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new physical connection if none is idle and the pool is not full.
+     * @return a pooled Connection; closing it returns it to the pool.
+     * @throws SQLException if a database error occurs, if the pool is closed or if no connection became available
+     * before the connection timeout expired (in which case a SQLTransientConnectionException is thrown), or before the
+     * {@link DBDeadline} of the thread expired (in which case a SQLTimeoutException is thrown).
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        long remaining = DBDeadline.remainingNanos();
+        if (remaining >= connectionTimeoutNanos)
+            return borrow(connectionTimeoutNanos);
+
+        DBDeadline.check("obtaining a pooled connection");
+        try {
+            return borrow(remaining);
+        } catch (SQLTransientConnectionException ex) {
+            if (ex.getCause() != null)
+                throw ex;
+            throw new SQLTimeoutException("Deadline expired while waiting for a pooled connection (" + maxSize + " connections in use).", ex);
+        }
+    }
+
+    Connection borrow(long timeoutNanos) throws SQLException {
+        checkNotClosed();
+
+        try {
+            if (!permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS))
+                throw new SQLTransientConnectionException(
+                        "No connection available in pool after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms ("
+                                + maxSize + " connections in use).");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection.", ex);
+        }
+
+        try {
+            return takeConnection().lend();
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private PooledConnection takeConnection() throws SQLException {
+        while (true) {
+            checkNotClosed();
+
+            PooledConnection pooledConnection = idle.pollFirst();
+            if (pooledConnection != null) {
+                if (isUsable(pooledConnection))
+                    return pooledConnection;
+                discard(pooledConnection);
+                continue;
+            }
+
+            if (total.incrementAndGet() <= maxSize) {
+                try {
+                    return new PooledConnection(db.getConnection());
+                } catch (SQLException | RuntimeException ex) {
+                    total.decrementAndGet();
+                    throw ex;
+                }
+            }
+
+            // another borrower is about to return a connection to the idle deque
+            total.decrementAndGet();
+            awaitReturn();
+        }
+    }
+
+    // Parks until a connection is returned or discarded. The deque and the total are checked again once registered as a
+    // waiter, so that a return happening in between is not missed; the park is bounded anyway.
+    private void awaitReturn() throws SQLException {
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            if (idle.isEmpty() && total.get() >= maxSize)
+                LockSupport.parkNanos(this, RETURN_WAIT_NANOS);
+        } finally {
+            waiters.remove(current);
+        }
+        if (current.isInterrupted())
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection.");
+    }
+
+    private void signalReturn() {
+        Thread waiter = waiters.peek();
+        if (waiter != null)
+            LockSupport.unpark(waiter);
+    }
+
+    private boolean isUsable(PooledConnection pooledConnection) {
+        long now = System.nanoTime();
+        if (now - pooledConnection.createdAt > maxLifetimeNanos)
+            return false;
+        if (now - pooledConnection.lastUsedAt < validationWindowNanos)
+            return true;
+
+        try {
+            return pooledConnection.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void giveBack(PooledConnection pooledConnection) {
+        try {
+            if (closed || pooledConnection.broken || System.nanoTime() - pooledConnection.createdAt > maxLifetimeNanos)
+                discard(pooledConnection);
+            else if (pooledConnection.reset()) {
+                idle.offerFirst(pooledConnection);
+                signalReturn();
+            } else
+                discard(pooledConnection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooledConnection) {
+        total.decrementAndGet();
+        signalReturn();
+        if (pooledConnection.statementCache != null)
+            pooledConnection.statementCache.clear();
+        DBUtils.connectionSilentClose(pooledConnection.physical);
+    }
+
+    private void evictIdleConnections() {
+        long now = System.nanoTime();
+        for (PooledConnection pooledConnection : idle) {
+            boolean expired = now - pooledConnection.createdAt > maxLifetimeNanos;
+            boolean idleTooLong = now - pooledConnection.lastUsedAt > idleTimeoutNanos && idle.size() > minIdle;
+            if ((expired || idleTooLong) && idle.remove(pooledConnection))
+                discard(pooledConnection);
+        }
+    }
+
+    private void checkNotClosed() throws SQLException {
+        if (closed)
+            throw new SQLException("Connection pool has been closed.");
+    }
+
+    /**
+     * @return the number of physical connections currently open, idle or in use.
+     */
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of physical connections currently idle in the pool.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of connections currently borrowed from the pool.
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * @return the maximum number of physical connections kept by the pool.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return how many times a PreparedStatement was found in a statement cache, 0 if statement caching is not enabled.
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * @return how many times a PreparedStatement had to be prepared because it was not in a statement cache,
+     * 0 if statement caching is not enabled.
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeping thread. Connections still in use are closed when returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idle.pollFirst()) != null)
+            discard(pooledConnection);
+    }
+
+
+    private final class PooledConnection {
+
+        final Connection physical;
+        final long createdAt;
+        final boolean defaultAutoCommit;
+        final int defaultIsolation;
+        final boolean defaultReadOnly;
+        final List<Statement> statements = new ArrayList<>();
+        final DBStatementCache statementCache;
+
+        volatile long lastUsedAt;
+        boolean broken;
+        boolean dirty;
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            createdAt = System.nanoTime();
+            lastUsedAt = createdAt;
+            try {
+                defaultAutoCommit = physical.getAutoCommit();
+                defaultIsolation = physical.getTransactionIsolation();
+                defaultReadOnly = physical.isReadOnly();
+            } catch (SQLException ex) {
+                DBUtils.connectionSilentClose(physical);
+                throw ex;
+            }
+            if (statementCacheSize > 0)
+                statementCache = new DBStatementCache(physical, statementCacheSize, statementCacheHits, statementCacheMisses);
+            else
+                statementCache = null;
+        }
+
+        Connection lend() {
+            return (Connection) Proxy.newProxyInstance(
+                    DBPooled.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new LogicalConnection(this));
+        }
+
+        boolean reset() {
+            try {
+                for (Statement statement : statements)
+                    if (!statement.isClosed())
+                        statement.close();
+                statements.clear();
+
+                if (!physical.getAutoCommit())
+                    physical.rollback();
+                if (dirty) {
+                    if (physical.getAutoCommit() != defaultAutoCommit)
+                        physical.setAutoCommit(defaultAutoCommit);
+                    if (physical.getTransactionIsolation() != defaultIsolation)
+                        physical.setTransactionIsolation(defaultIsolation);
+                    if (physical.isReadOnly() != defaultReadOnly)
+                        physical.setReadOnly(defaultReadOnly);
+                    dirty = false;
+                }
+                physical.clearWarnings();
+                lastUsedAt = System.nanoTime();
+                return true;
+            } catch (SQLException ex) {
+                return false;
+            }
+        }
+
+        void track(Statement statement) throws SQLException {
+            if (statements.size() >= 64) {
+                List<Statement> open = new ArrayList<>();
+                for (Statement tracked : statements)
+                    if (!tracked.isClosed())
+                        open.add(tracked);
+                statements.clear();
+                statements.addAll(open);
+            }
+            statements.add(statement);
+        }
+    }
+
+
+    // One instance per borrow, so that closing a connection twice cannot release it after it has been lent again.
+    private final class LogicalConnection implements InvocationHandler {
+
+        private final PooledConnection pooledConnection;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        LogicalConnection(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            switch (name) {
+                case "close":
+                    if (closed.compareAndSet(false, true))
+                        giveBack(pooledConnection);
+                    return null;
+                case "isClosed":
+                    return closed.get() || pooledConnection.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooledConnection.physical + "]";
+            }
+
+            if (closed.get())
+                throw new SQLException("Connection has been returned to the pool.");
+
+            if (name.equals("setAutoCommit") || name.equals("setTransactionIsolation") || name.equals("setReadOnly"))
+                pooledConnection.dirty = true;
+            else if (name.equals("abort"))
+                pooledConnection.broken = true;
+
+            Object result;
+            try {
+                if (name.equals("prepareStatement") && pooledConnection.statementCache != null && DBStatementCache.isCacheable(args))
+                    result = pooledConnection.statementCache.prepare((Connection) proxy, args);
+                else
+                    result = method.invoke(pooledConnection.physical, args);
+            } catch (InvocationTargetException ex) {
+                throw checkBroken(ex.getCause());
+            } catch (SQLException ex) {
+                throw checkBroken(ex);
+            }
+
+            if (result instanceof Statement)
+                pooledConnection.track((Statement) result);
+
+            return result;
+        }
+
+        private Throwable checkBroken(Throwable cause) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("08"))
+                    pooledConnection.broken = true;
+            }
+            return cause;
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBPooled} instance.
+     */
+    public static class Builder {
+
+        private final DB db;
+        private int maxSize = 10;
+        private int minIdle = 0;
+        private Duration idleTimeout = Duration.ofMinutes(10);
+        private Duration maxLifetime = Duration.ofMinutes(30);
+        private Duration connectionTimeout = Duration.ofSeconds(30);
+        private Duration validationWindow = Duration.ofMillis(500);
+        private Duration validationTimeout = Duration.ofSeconds(5);
+        private Duration housekeepingPeriod = Duration.ofSeconds(30);
+        private int statementCacheSize = 0;
+
+        private Builder(DB db) {
+            if (db == null)
+                throw new NullPointerException("db");
+            this.db = db;
+        }
+
+        /**
+         * @param maxSize maximum number of physical connections, default 10.
+         * @return this builder.
+         */
+        public Builder maxSize(int maxSize) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("maxSize must be at least 1: " + maxSize);
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * @param minIdle number of idle connections that are never evicted for being idle, default 0.
+         * @return this builder.
+         */
+        public Builder minIdle(int minIdle) {
+            if (minIdle < 0)
+                throw new IllegalArgumentException("minIdle cannot be negative: " + minIdle);
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        /**
+         * @param idleTimeout how long a connection can stay idle before being closed, default 10 minutes.
+         * @return this builder.
+         */
+        public Builder idleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * @param maxLifetime maximum lifetime of a physical connection, default 30 minutes.
+         *                    Connections in use are closed when they are returned to the pool.
+         * @return this builder.
+         */
+        public Builder maxLifetime(Duration maxLifetime) {
+            this.maxLifetime = maxLifetime;
+            return this;
+        }
+
+        /**
+         * @param connectionTimeout how long {@link DBPooled#getConnection()} waits for a connection, default 30 seconds.
+         * @return this builder.
+         */
+        public Builder connectionTimeout(Duration connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        /**
+         * @param validationWindow connections used more recently than this are not validated on borrow, default 500 ms.
+         *                         Use Duration.ZERO to validate every connection on borrow.
+         * @return this builder.
+         */
+        public Builder validationWindow(Duration validationWindow) {
+            this.validationWindow = validationWindow;
+            return this;
+        }
+
+        /**
+         * @param validationTimeout timeout passed to Connection.isValid() when validating a connection, default 5 seconds.
+         * @return this builder.
+         */
+        public Builder validationTimeout(Duration validationTimeout) {
+            this.validationTimeout = validationTimeout;
+            return this;
+        }
+
+        /**
+         * @param housekeepingPeriod how often idle and expired connections are looked for, default 30 seconds.
+         * @return this builder.
+         */
+        public Builder housekeepingPeriod(Duration housekeepingPeriod) {
+            if (housekeepingPeriod.isZero() || housekeepingPeriod.isNegative())
+                throw new IllegalArgumentException("housekeepingPeriod must be positive: " + housekeepingPeriod);
+            this.housekeepingPeriod = housekeepingPeriod;
+            return this;
+        }
+
+        /**
+         * @param statementCacheSize number of PreparedStatements cached for each physical connection, default 0 (no caching).
+         *                           The least recently used statement is closed when the cache is full.
+         * @return this builder.
+         */
+        public Builder statementCacheSize(int statementCacheSize) {
+            if (statementCacheSize < 0)
+                throw new IllegalArgumentException("statementCacheSize cannot be negative: " + statementCacheSize);
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBPooled} instance.
+         */
+        public DBPooled build() {
+            if (minIdle > maxSize)
+                throw new IllegalArgumentException("minIdle (" + minIdle + ") cannot be greater than maxSize (" + maxSize + ")");
+            return new DBPooled(this);
+        }
+    }
+}
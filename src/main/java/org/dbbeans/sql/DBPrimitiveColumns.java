@@ -0,0 +1,194 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.Array;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Ready-made {@link DBQueryRetrieveData} implementations reading numeric columns into primitive arrays and maps, without
+ * allocating an object per row. Use them with {@link DBAccess#processQuery(String, DBQuerySetup, DBQueryRetrieveData)}
+ * or {@link DBTransaction#addQuery(String, DBQuerySetup, DBQueryRetrieveData)}, for instance:
+ * long[] ids = dbAccess.processQuery("SELECT id FROM item WHERE amount > ?", stat -> stat.setInt(1, 10), DBPrimitiveColumns.longs());
+ *
+ * Columns are designated by their index, starting at 1. As with the JDBC getters, SQL NULL values are read as 0.
+ */
+public final class DBPrimitiveColumns {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_CHUNK_LENGTH = 1 << 16;
+
+    private static final DBQueryRetrieveData<long[]> FIRST_COLUMN_LONGS = longs(1);
+    private static final DBQueryRetrieveData<int[]> FIRST_COLUMN_INTS = ints(1);
+    private static final DBQueryRetrieveData<double[]> FIRST_COLUMN_DOUBLES = doubles(1);
+
+    private DBPrimitiveColumns() { }
+
+    /**
+     * @return a {@link DBQueryRetrieveData} returning the values of the first column of all rows as a long array.
+     */
+    public static DBQueryRetrieveData<long[]> longs() {
+        return FIRST_COLUMN_LONGS;
+    }
+
+    /**
+     * @param column index of the column to read, starting at 1.
+     * @return a {@link DBQueryRetrieveData} returning the values of the column for all rows as a long array.
+     */
+    public static DBQueryRetrieveData<long[]> longs(int column) {
+        checkColumn(column);
+        return rs -> {
+            long[] values = new long[INITIAL_CAPACITY];
+            int count = 0;
+            Chunks chunks = null;
+            while (rs.next()) {
+                if (count == values.length) {
+                    if (chunks == null)
+                        chunks = new Chunks();
+                    values = new long[chunks.add(values, count)];
+                    count = 0;
+                }
+                values[count++] = rs.getLong(column);
+            }
+            if (chunks == null)
+                return count == values.length ? values : Arrays.copyOf(values, count);
+            return chunks.toArray(values, count, long[]::new);
+        };
+    }
+
+    /**
+     * @return a {@link DBQueryRetrieveData} returning the values of the first column of all rows as an int array.
+     */
+    public static DBQueryRetrieveData<int[]> ints() {
+        return FIRST_COLUMN_INTS;
+    }
+
+    /**
+     * @param column index of the column to read, starting at 1.
+     * @return a {@link DBQueryRetrieveData} returning the values of the column for all rows as an int array.
+     */
+    public static DBQueryRetrieveData<int[]> ints(int column) {
+        checkColumn(column);
+        return rs -> {
+            int[] values = new int[INITIAL_CAPACITY];
+            int count = 0;
+            Chunks chunks = null;
+            while (rs.next()) {
+                if (count == values.length) {
+                    if (chunks == null)
+                        chunks = new Chunks();
+                    values = new int[chunks.add(values, count)];
+                    count = 0;
+                }
+                values[count++] = rs.getInt(column);
+            }
+            if (chunks == null)
+                return count == values.length ? values : Arrays.copyOf(values, count);
+            return chunks.toArray(values, count, int[]::new);
+        };
+    }
+
+    /**
+     * @return a {@link DBQueryRetrieveData} returning the values of the first column of all rows as a double array.
+     */
+    public static DBQueryRetrieveData<double[]> doubles() {
+        return FIRST_COLUMN_DOUBLES;
+    }
+
+    /**
+     * @param column index of the column to read, starting at 1.
+     * @return a {@link DBQueryRetrieveData} returning the values of the column for all rows as a double array.
+     */
+    public static DBQueryRetrieveData<double[]> doubles(int column) {
+        checkColumn(column);
+        return rs -> {
+            double[] values = new double[INITIAL_CAPACITY];
+            int count = 0;
+            Chunks chunks = null;
+            while (rs.next()) {
+                if (count == values.length) {
+                    if (chunks == null)
+                        chunks = new Chunks();
+                    values = new double[chunks.add(values, count)];
+                    count = 0;
+                }
+                values[count++] = rs.getDouble(column);
+            }
+            if (chunks == null)
+                return count == values.length ? values : Arrays.copyOf(values, count);
+            return chunks.toArray(values, count, double[]::new);
+        };
+    }
+
+    /**
+     * If several rows have the same key, the value of the last one is kept.
+     * @param keyColumn index of the column containing the keys, starting at 1.
+     * @param valueColumn index of the column containing the values, starting at 1.
+     * @return a {@link DBQueryRetrieveData} returning a {@link DBLongLongMap} of the values of valueColumn by the values of keyColumn.
+     */
+    public static DBQueryRetrieveData<DBLongLongMap> longLongMap(int keyColumn, int valueColumn) {
+        checkColumn(keyColumn);
+        checkColumn(valueColumn);
+        return rs -> {
+            DBLongLongMap map = new DBLongLongMap();
+            while (rs.next())
+                map.put(rs.getLong(keyColumn), rs.getLong(valueColumn));
+            return map;
+        };
+    }
+
+    /**
+     * If several rows have the same key, the value of the last one is kept.
+     * @param keyColumn index of the column containing the keys, starting at 1.
+     * @param valueMapper an object implementing the {@link DBRowMapper} interface, used to create the value of each row; it must not return null.
+     * @param <V> type of the values.
+     * @return a {@link DBQueryRetrieveData} returning a {@link DBLongMap} of the values created from each row by the values of keyColumn.
+     */
+    public static <V> DBQueryRetrieveData<DBLongMap<V>> longMap(int keyColumn, DBRowMapper<V> valueMapper) {
+        checkColumn(keyColumn);
+        return rs -> {
+            DBLongMap<V> map = new DBLongMap<>();
+            while (rs.next())
+                map.put(rs.getLong(keyColumn), valueMapper.mapRow(rs));
+            return map;
+        };
+    }
+
+    private static void checkColumn(int column) {
+        if (column < 1)
+            throw new IllegalArgumentException("Column indexes start at 1: " + column);
+    }
+
+
+    // Filled chunks of a primitive array: growing never copies the values already read, only the final array is assembled.
+    private static final class Chunks {
+
+        private final List<Object> filled = new ArrayList<>();
+        private long length = 0;
+
+        // returns the length of the next chunk
+        int add(Object chunk, int chunkLength) {
+            filled.add(chunk);
+            length += chunkLength;
+            return Math.min(chunkLength * 2, MAX_CHUNK_LENGTH);
+        }
+
+        <A> A toArray(A last, int lastCount, IntFunction<A> newArray) {
+            long total = length + lastCount;
+            if (total > Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("Too many rows for an array: " + total);
+
+            A result = newArray.apply((int) total);
+            int position = 0;
+            for (Object chunk : filled) {
+                int chunkLength = Array.getLength(chunk);
+                System.arraycopy(chunk, 0, result, position, chunkLength);
+                position += chunkLength;
+            }
+            System.arraycopy(last, 0, result, position, lastCount);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package org.dbbeans.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import java.nio.ByteBuffer;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of query results, shared by {@link DBCachedAccess} and {@link DBCachedTransaction} instances.
+ *
+ * Results are keyed by SQL text and parameter values, as set by the {@link DBQuerySetup} of the query. The cache holds
+ * at most maxEntries results, evicting the least recently used ones first, and each result expires after the
+ * time-to-live. When several threads ask for the same missing result at the same time, only one of them queries the
+ * database and the others wait for its result.
+ *
+ * Each result is tagged with the tables read by its query, and is invalidated when an update through
+ * {@link DBCachedAccess}, or a committed {@link DBCachedTransaction}, modifies one of these tables. Tables are found by
+ * a simple parsing of the SQL text (FROM and JOIN clauses for queries; INSERT INTO, UPDATE, DELETE FROM, MERGE INTO and
+ * TRUNCATE TABLE for updates). Use {@link DBQueryCache#declareTables(String, String...)} when the parsing is not
+ * adequate, for instance for views or stored procedures, and {@link DBQueryCache#invalidate(String...)} for changes made
+ * outside of this library. Updates whose tables cannot be determined invalidate the whole cache.
+ *
+ * Cached results are shared by all callers and must not be modified.
+ */
+public class DBQueryCache {
+
+    private static final Object NULL_RESULT = new Object();
+    private static final int PARSED_TABLES_CACHE_SIZE = 4096;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // guarded by this
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<String, Set<Key>> keysByTable = new HashMap<>();
+    private final Map<String, Long> tableInvalidatedAt = new HashMap<>();
+    private long generation = 0;
+    private long allInvalidatedAt = 0;
+
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> declaredTables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> queriedTables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> updatedTables = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries maximum number of results kept in the cache.
+     * @param ttl how long a result stays in the cache, if not invalidated before.
+     */
+    public DBQueryCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1: " + maxEntries);
+        if (ttl.isNegative() || ttl.isZero())
+            throw new IllegalArgumentException("ttl must be positive: " + ttl);
+
+        this.maxEntries = maxEntries;
+        ttlNanos = ttl.toNanos();
+
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, DBQueryCache.Entry> eldest) {
+                if (size() > DBQueryCache.this.maxEntries) {
+                    untag(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Declares the tables a query depends on, or the tables an update modifies, replacing the tables found by parsing its SQL text.
+     * @param sql SQL query, exactly as passed to {@link DBCachedAccess} or {@link DBCachedTransaction}.
+     * @param tables the names of the tables, case insensitive.
+     */
+    public void declareTables(String sql, String... tables) {
+        declaredTables.put(sql, normalize(Arrays.asList(tables)));
+    }
+
+    /**
+     * Removes from the cache all results of queries depending on any of the specified tables.
+     * @param tables the names of the tables, case insensitive.
+     */
+    public void invalidate(String... tables) {
+        invalidate(normalize(Arrays.asList(tables)));
+    }
+
+    /**
+     * Removes all results from the cache.
+     */
+    public synchronized void invalidateAll() {
+        allInvalidatedAt = ++generation;
+        entries.clear();
+        keysByTable.clear();
+        tableInvalidatedAt.clear();
+    }
+
+    /**
+     * @return the number of results in the cache, expired ones included until they are evicted.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the maximum number of results kept in the cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of queries answered from the cache, including those that waited for a concurrent load.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of queries sent to the database.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "DBQueryCache[size=" + size() + " maxEntries=" + maxEntries + " hits=" + getHits() + " misses=" + getMisses() + "]";
+    }
+
+    /**
+     * Returns the cached result of a query, or loads it.
+     * @param sql SQL query.
+     * @param querySetup used to compute the cache key, then by the loader; may be null.
+     * @param loader queries the database.
+     * @param <T> type of query result.
+     * @return the result of the query.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String sql, DBQuerySetup querySetup, Loader<T> loader) {
+        Key key = createKey(sql, querySetup);
+        if (key == null) {
+            misses.increment();
+            return loader.load();
+        }
+
+        long loadStart;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.expiresAt < 0) {
+                    hits.increment();
+                    return (T) unmask(entry.value);
+                }
+                entries.remove(key);
+                untag(key, entry);
+            }
+            loadStart = generation;
+        }
+
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> concurrentLoad = loading.putIfAbsent(key, load);
+        if (concurrentLoad != null) {
+            hits.increment();
+            try {
+                return (T) unmask(concurrentLoad.join());
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof Error)
+                    throw (Error) ex.getCause();
+                throw (RuntimeException) ex.getCause();
+            }
+        }
+
+        misses.increment();
+        try {
+            T result = loader.load();
+            Object value = result == null ? NULL_RESULT : result;
+            store(key, value, queriedTables(sql), loadStart);
+            load.complete(value);
+            return result;
+        } catch (RuntimeException | Error ex) {
+            load.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * Invalidates the results depending on the tables modified by an update.
+     * @param sql SQL text of the update.
+     */
+    void invalidateUpdated(String sql) {
+        Set<String> tables = updatedTables(sql);
+        if (tables.isEmpty())
+            invalidateAll();
+        else
+            invalidate(tables);
+    }
+
+    /**
+     * Invalidates the results depending on the tables modified by SQL code executed by user code, unless it is a query.
+     * @param sql SQL text of the statement.
+     */
+    void invalidateIfUpdate(String sql) {
+        if (!isQuery(sql))
+            invalidateUpdated(sql);
+    }
+
+    /**
+     * @param sql SQL text of a statement.
+     * @return true if the statement is a SELECT query, comments excluded.
+     */
+    static boolean isQuery(String sql) {
+        List<String> tokens = tokenize(sql);
+        return !tokens.isEmpty() && tokens.get(0).equals("select");
+    }
+
+    /**
+     * Invalidates the results depending on the tables modified by several updates.
+     * @param sqls SQL texts of the updates.
+     */
+    void invalidateUpdated(Iterable<String> sqls) {
+        Set<String> tables = new HashSet<>();
+        for (String sql : sqls) {
+            Set<String> updated = updatedTables(sql);
+            if (updated.isEmpty()) {
+                invalidateAll();
+                return;
+            }
+            tables.addAll(updated);
+        }
+        invalidate(tables);
+    }
+
+    private synchronized void invalidate(Set<String> tables) {
+        long invalidatedAt = ++generation;
+        for (String table : tables) {
+            tableInvalidatedAt.put(table, invalidatedAt);
+            Set<Key> keys = keysByTable.remove(table);
+            if (keys == null)
+                continue;
+            for (Key key : keys) {
+                Entry entry = entries.remove(key);
+                if (entry != null)
+                    untag(key, entry);
+            }
+        }
+    }
+
+    // A result loaded while one of its tables was invalidated may be stale, so it is not stored.
+    private synchronized void store(Key key, Object value, Set<String> tables, long loadStart) {
+        if (allInvalidatedAt > loadStart)
+            return;
+        for (String table : tables) {
+            Long invalidatedAt = tableInvalidatedAt.get(table);
+            if (invalidatedAt != null && invalidatedAt > loadStart)
+                return;
+        }
+
+        Entry previous = entries.put(key, new Entry(value, System.nanoTime() + ttlNanos, tables));
+        if (previous != null)
+            untag(key, previous);
+        for (String table : tables)
+            keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+    }
+
+    private void untag(Key key, Entry entry) {
+        for (String table : entry.tables) {
+            Set<Key> keys = keysByTable.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    keysByTable.remove(table);
+            }
+        }
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL_RESULT ? null : value;
+    }
+
+    // Returns null if the parameters cannot be captured or compared.
+    private static Key createKey(String sql, DBQuerySetup querySetup) {
+        if (querySetup == null)
+            return new Key(sql, Collections.emptyList());
+
+        DBParameterCapture capture = new DBParameterCapture(null, false);
+        try {
+            querySetup.setupPreparedStatement(capture.getProxy());
+        } catch (SQLException ex) {
+            return null;
+        }
+
+        List<Object> parameters = new ArrayList<>(capture.getValues());
+        for (int i = 0; i < parameters.size(); ++i) {
+            Object value = parameters.get(i);
+            if (value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob
+                    || value instanceof Array)
+                return null;
+            if (value instanceof byte[])
+                parameters.set(i, ByteBuffer.wrap(((byte[]) value).clone()));
+        }
+        return new Key(sql, parameters);
+    }
+
+    private Set<String> queriedTables(String sql) {
+        Set<String> declared = declaredTables.get(sql);
+        if (declared != null)
+            return declared;
+        return parse(queriedTables, sql, true);
+    }
+
+    private Set<String> updatedTables(String sql) {
+        Set<String> declared = declaredTables.get(sql);
+        if (declared != null)
+            return declared;
+        return parse(updatedTables, sql, false);
+    }
+
+    private static Set<String> parse(ConcurrentHashMap<String, Set<String>> parsed, String sql, boolean query) {
+        Set<String> tables = parsed.get(sql);
+        if (tables == null) {
+            tables = query ? parseQueriedTables(sql) : parseUpdatedTables(sql);
+            if (parsed.size() >= PARSED_TABLES_CACHE_SIZE)
+                parsed.clear();
+            parsed.put(sql, tables);
+        }
+        return tables;
+    }
+
+    static Set<String> parseQueriedTables(String sql) {
+        List<String> tokens = tokenize(sql);
+        Set<String> tables = new HashSet<>();
+        for (int i = 0; i < tokens.size(); ++i) {
+            String token = tokens.get(i);
+            if (!token.equals("from") && !token.equals("join"))
+                continue;
+
+            int position = i + 1;
+            while (position < tokens.size() && isIdentifier(tokens.get(position))) {
+                tables.add(tableName(tokens.get(position)));
+                ++position;
+                // skip alias
+                if (position < tokens.size() && tokens.get(position).equals("as"))
+                    ++position;
+                if (position < tokens.size() && isIdentifier(tokens.get(position)))
+                    ++position;
+                if (position < tokens.size() && tokens.get(position).equals(","))
+                    ++position;
+                else
+                    break;
+            }
+        }
+        return Collections.unmodifiableSet(tables);
+    }
+
+    static Set<String> parseUpdatedTables(String sql) {
+        List<String> tokens = tokenize(sql);
+        if (tokens.isEmpty())
+            return Collections.emptySet();
+
+        int position;
+        switch (tokens.get(0)) {
+            case "insert":
+            case "merge":
+            case "replace":
+                position = tokens.indexOf("into") + 1;
+                break;
+            case "update":
+                position = 1;
+                break;
+            case "delete":
+                position = tokens.indexOf("from") + 1;
+                break;
+            case "truncate":
+                position = tokens.size() > 1 && tokens.get(1).equals("table") ? 2 : 1;
+                break;
+            default:
+                return Collections.emptySet();
+        }
+
+        if (position < 1 || position >= tokens.size() || !isIdentifier(tokens.get(position)))
+            return Collections.emptySet();
+        return Collections.singleton(tableName(tokens.get(position)));
+    }
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "select", "from", "join", "where", "group", "order", "having", "limit", "offset", "fetch", "union",
+            "intersect", "except", "minus", "on", "using", "inner", "left", "right", "full", "outer", "cross",
+            "natural", "lateral", "as", "into", "set", "values", "for", "with", "window", "qualify", "connect", "start"));
+
+    private static boolean isIdentifier(String token) {
+        char first = token.charAt(0);
+        return (Character.isLetter(first) || first == '_' || first == '"' || first == '`' || first == '[')
+                && !KEYWORDS.contains(token);
+    }
+
+    // Removes quotes and schema, so that "Schema"."Table", schema.table and table match.
+    private static String tableName(String token) {
+        String name = token.substring(token.lastIndexOf('.') + 1);
+        return name.replace("\"", "").replace("`", "").replace("[", "").replace("]", "");
+    }
+
+    // Lower-cased identifiers (quoted ones included) and punctuation; literals and comments are dropped.
+    private static List<String> tokenize(String sql) {
+        List<String> tokens = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c))
+                ++i;
+            else if (c == '\'') {
+                ++i;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'')
+                            i += 2;
+                        else
+                            break;
+                    } else
+                        ++i;
+                }
+                ++i;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n')
+                    ++i;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (Character.isLetter(c) || c == '_' || c == '"' || c == '`' || c == '[') {
+                int start = i;
+                while (i < length) {
+                    char current = sql.charAt(i);
+                    if (current == '"' || current == '`' || current == '[') {
+                        char closing = current == '[' ? ']' : current;
+                        int end = sql.indexOf(closing, i + 1);
+                        i = end < 0 ? length : end + 1;
+                    } else if (Character.isLetterOrDigit(current) || current == '_' || current == '$' || current == '.')
+                        ++i;
+                    else
+                        break;
+                }
+                tokens.add(sql.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                tokens.add(String.valueOf(c));
+                ++i;
+            }
+        }
+        return tokens;
+    }
+
+    private static Set<String> normalize(Iterable<String> tables) {
+        Set<String> normalized = new HashSet<>();
+        for (String table : tables)
+            normalized.add(tableName(table.toLowerCase(Locale.ROOT)));
+        return Collections.unmodifiableSet(normalized);
+    }
+
+
+    /**
+     * Queries the database on a cache miss.
+     * @param <T> type of query result.
+     */
+    interface Loader<T> {
+        T load();
+    }
+
+
+    private static final class Key {
+
+        private final String sql;
+        private final List<Object> parameters;
+        private final int hash;
+
+        Key(String sql, List<Object> parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+            hash = 31 * sql.hashCode() + parameters.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return hash == key.hash && sql.equals(key.sql) && parameters.equals(key.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long expiresAt;
+        private final Set<String> tables;
+
+        Entry(Object value, long expiresAt, Set<String> tables) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.tables = tables;
+        }
+    }
+}
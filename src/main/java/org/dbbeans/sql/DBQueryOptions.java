@@ -0,0 +1,202 @@
+package org.dbbeans.sql;
+
+import java.sql.ResultSet;
+
+/**
+ * Immutable set of options applied to the PreparedStatements created by {@link DBUtils}, {@link DBAccess} and {@link DBTransaction}.
+ *
+ * Options left at their default value are not applied, so the driver defaults stay in effect. Use
+ * {@link DBQueryOptions#builder()} to create an instance, then pass it to a {@link DBAccess} or {@link DBTransaction}
+ * constructor to make it the default for all their operations, or to {@link DBAccess#withOptions(DBQueryOptions)} for
+ * a single call.
+ *
+ * Some drivers (e.g. MySQL, PostgreSQL) read the whole result of a query in memory unless a fetch size is set and
+ * a forward-only, read-only cursor is used.
+ */
+public final class DBQueryOptions {
+
+    /**
+     * Options using the driver defaults for everything.
+     */
+    public static final DBQueryOptions DEFAULT = builder().build();
+
+    private final int fetchSize;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int maxRows;
+    private final int queryTimeout;
+
+    private DBQueryOptions(Builder builder) {
+        fetchSize = builder.fetchSize;
+        resultSetType = builder.resultSetType;
+        resultSetConcurrency = builder.resultSetConcurrency;
+        maxRows = builder.maxRows;
+        queryTimeout = builder.queryTimeout;
+    }
+
+    /**
+     * @return a {@link Builder} to create a new set of options.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param options the options to start from.
+     * @return a {@link Builder} initialized with the given options.
+     */
+    public static Builder builder(DBQueryOptions options) {
+        Builder builder = new Builder();
+        builder.fetchSize = options.fetchSize;
+        builder.resultSetType = options.resultSetType;
+        builder.resultSetConcurrency = options.resultSetConcurrency;
+        builder.maxRows = options.maxRows;
+        builder.queryTimeout = options.queryTimeout;
+        return builder;
+    }
+
+    /**
+     * @return the fetch size hint, 0 for the driver default.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @return the ResultSet type (ResultSet.TYPE_*), 0 for the driver default.
+     */
+    public int getResultSetType() {
+        return resultSetType;
+    }
+
+    /**
+     * @return the ResultSet concurrency (ResultSet.CONCUR_*), 0 for the driver default.
+     */
+    public int getResultSetConcurrency() {
+        return resultSetConcurrency;
+    }
+
+    /**
+     * @return the maximum number of rows returned by a query, 0 for no limit.
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * @return the query timeout in seconds, 0 for no timeout.
+     */
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * @return true if a ResultSet type or concurrency has been specified.
+     */
+    public boolean hasCursorOptions() {
+        return resultSetType != 0 || resultSetConcurrency != 0;
+    }
+
+    /**
+     * @return true if all options are at their default value.
+     */
+    public boolean isDefault() {
+        return fetchSize == 0 && !hasCursorOptions() && maxRows == 0 && queryTimeout == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DBQueryOptions{fetchSize=" + fetchSize + ", resultSetType=" + resultSetType
+                + ", resultSetConcurrency=" + resultSetConcurrency + ", maxRows=" + maxRows
+                + ", queryTimeout=" + queryTimeout + "}";
+    }
+
+
+    /**
+     * Builder class to create {@link DBQueryOptions} instances.
+     */
+    public static class Builder {
+
+        private int fetchSize = 0;
+        private int resultSetType = 0;
+        private int resultSetConcurrency = 0;
+        private int maxRows = 0;
+        private int queryTimeout = 0;
+
+        private Builder() { }
+
+        /**
+         * @param fetchSize number of rows the driver should fetch from the database at once, 0 for the driver default.
+         * @return this builder.
+         */
+        public Builder fetchSize(int fetchSize) {
+            if (fetchSize < 0)
+                throw new IllegalArgumentException("fetchSize cannot be negative: " + fetchSize);
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * @param resultSetType one of ResultSet.TYPE_FORWARD_ONLY, ResultSet.TYPE_SCROLL_INSENSITIVE or ResultSet.TYPE_SCROLL_SENSITIVE.
+         * @return this builder.
+         */
+        public Builder resultSetType(int resultSetType) {
+            if (resultSetType != ResultSet.TYPE_FORWARD_ONLY
+                    && resultSetType != ResultSet.TYPE_SCROLL_INSENSITIVE
+                    && resultSetType != ResultSet.TYPE_SCROLL_SENSITIVE)
+                throw new IllegalArgumentException("Invalid ResultSet type: " + resultSetType);
+            this.resultSetType = resultSetType;
+            return this;
+        }
+
+        /**
+         * @param resultSetConcurrency one of ResultSet.CONCUR_READ_ONLY or ResultSet.CONCUR_UPDATABLE.
+         * @return this builder.
+         */
+        public Builder resultSetConcurrency(int resultSetConcurrency) {
+            if (resultSetConcurrency != ResultSet.CONCUR_READ_ONLY && resultSetConcurrency != ResultSet.CONCUR_UPDATABLE)
+                throw new IllegalArgumentException("Invalid ResultSet concurrency: " + resultSetConcurrency);
+            this.resultSetConcurrency = resultSetConcurrency;
+            return this;
+        }
+
+        /**
+         * Shortcut for a forward-only, read-only cursor, the cheapest kind of cursor for most drivers.
+         * @return this builder.
+         */
+        public Builder forwardOnlyReadOnly() {
+            resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+            resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
+            return this;
+        }
+
+        /**
+         * @param maxRows maximum number of rows returned by a query, 0 for no limit.
+         * @return this builder.
+         */
+        public Builder maxRows(int maxRows) {
+            if (maxRows < 0)
+                throw new IllegalArgumentException("maxRows cannot be negative: " + maxRows);
+            this.maxRows = maxRows;
+            return this;
+        }
+
+        /**
+         * @param queryTimeout number of seconds the driver waits for a statement to execute, 0 for no timeout.
+         * @return this builder.
+         */
+        public Builder queryTimeout(int queryTimeout) {
+            if (queryTimeout < 0)
+                throw new IllegalArgumentException("queryTimeout cannot be negative: " + queryTimeout);
+            this.queryTimeout = queryTimeout;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBQueryOptions} instance.
+         */
+        public DBQueryOptions build() {
+            return new DBQueryOptions(this);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.dbbeans.sql;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link DBListener} aggregating execution statistics per query fingerprint (see {@link DBInstrumentation#fingerprint(String)}).
+ *
+ * For each fingerprint, the number of executions and failures, the number of rows and a {@link DBLatencyHistogram} of
+ * the total execution time are kept. A histogram of connection acquisition times is kept for all queries.
+ * Register an instance with {@link DBInstrumentation#addListener(DBListener)}.
+ */
+public class DBQueryStatistics implements DBListener {
+
+    private final ConcurrentHashMap<String, QueryStatistics> statistics = new ConcurrentHashMap<>();
+    private final DBLatencyHistogram connectionAcquisition = new DBLatencyHistogram();
+    private final LongAdder connectionFailures = new LongAdder();
+
+    @Override
+    public void connectionAcquired(long durationNanos, Throwable failure) {
+        connectionAcquisition.record(durationNanos);
+        if (failure != null)
+            connectionFailures.increment();
+    }
+
+    @Override
+    public void statementCompleted(DBStatementEvent event) {
+        statistics.computeIfAbsent(event.getFingerprint(), QueryStatistics::new).record(event);
+    }
+
+    /**
+     * @param sql SQL query, or its fingerprint.
+     * @return the statistics of the query, or null if it has not been executed.
+     */
+    public QueryStatistics getStatistics(String sql) {
+        return statistics.get(DBInstrumentation.fingerprint(sql));
+    }
+
+    /**
+     * @return the statistics of all executed queries, the queries with the highest total execution time first.
+     */
+    public List<QueryStatistics> getAllStatistics() {
+        List<QueryStatistics> all = new ArrayList<>(statistics.values());
+        all.sort(Comparator.comparingLong((QueryStatistics queryStatistics) -> queryStatistics.getLatency().getTotalNanos()).reversed());
+        return all;
+    }
+
+    /**
+     * @return a histogram of the time spent obtaining connections.
+     */
+    public DBLatencyHistogram getConnectionAcquisition() {
+        return connectionAcquisition;
+    }
+
+    /**
+     * @return the number of times a connection could not be obtained.
+     */
+    public long getConnectionFailures() {
+        return connectionFailures.sum();
+    }
+
+    /**
+     * Forgets all statistics.
+     */
+    public void reset() {
+        statistics.clear();
+        connectionAcquisition.reset();
+        connectionFailures.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("connections: ").append(connectionAcquisition).append(" failures=").append(getConnectionFailures()).append('\n');
+        for (QueryStatistics queryStatistics : getAllStatistics())
+            report.append(queryStatistics).append('\n');
+        return report.toString();
+    }
+
+
+    /**
+     * Execution statistics of a single query fingerprint.
+     */
+    public static class QueryStatistics {
+
+        private final String fingerprint;
+        private final DBLatencyHistogram latency = new DBLatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+
+        QueryStatistics(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        void record(DBStatementEvent event) {
+            latency.record(event.getTotalNanos());
+            if (!event.isSuccess())
+                failures.increment();
+            if (event.getRows() > 0)
+                rows.add(event.getRows());
+        }
+
+        /**
+         * @return the query fingerprint.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return a histogram of the total execution times, connection acquisition included.
+         */
+        public DBLatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the number of executions, failed ones included.
+         */
+        public long getExecutions() {
+            return latency.getCount();
+        }
+
+        /**
+         * @return the number of failed executions.
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * @return the number of rows affected or read, when known.
+         */
+        public long getRows() {
+            return rows.sum();
+        }
+
+        @Override
+        public String toString() {
+            return fingerprint + ": " + latency + " failures=" + getFailures() + " rows=" + getRows();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class implements the {@link DB} interface for a primary database and its read replicas.
+ *
+ * {@link DBReplicated#getConnection()} always returns a connection to the primary, so that updates, all
+ * {@link DBTransaction} work and processQueries calls whose SQL code is not a SELECT query go to the primary.
+ * {@link DBReplicated#getReadConnection()}, used by the query functions of {@link DBAccess}, returns a connection to a
+ * replica chosen according to the {@link Policy}.
+ *
+ * Read-your-writes: when a stickiness window is configured, a thread that closed a primary connection less than the window
+ * ago gets primary connections for its reads too, so that it sees its own changes even if replication lags.
+ *
+ * A replica is considered unhealthy and removed from the rotation after a number of consecutive failures to obtain a
+ * connection from it. A background daemon thread checks unhealthy replicas periodically and puts them back in the
+ * rotation once a valid connection can be obtained. When no replica is healthy, reads go to the primary.
+ * Call {@link DBReplicated#close()} to stop the background thread.
+ */
+public class DBReplicated implements DB, AutoCloseable {
+
+    /**
+     * Replica selection policies.
+     */
+    public enum Policy {
+        /**
+         * Replicas are used in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * The replica with the fewest connections currently open through this instance is used.
+         */
+        LEAST_ACTIVE
+    }
+
+    private static final AtomicInteger REPLICATED_COUNTER = new AtomicInteger();
+
+    private final DB primary;
+    private final List<Replica> replicas;
+    private final Policy policy;
+    private final long stickinessNanos;
+    private final int failureThreshold;
+    private final int validationTimeoutSeconds;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[1]);
+    private final ScheduledExecutorService healthChecker;
+
+    private DBReplicated(Builder builder) {
+        primary = builder.primary;
+        policy = builder.policy;
+        stickinessNanos = builder.stickiness.toNanos();
+        failureThreshold = builder.failureThreshold;
+        validationTimeoutSeconds = (int) Math.max(1, builder.validationTimeout.getSeconds());
+
+        List<Replica> replicaList = new ArrayList<>();
+        for (DB replica : builder.replicas)
+            replicaList.add(new Replica(replica));
+        replicas = Collections.unmodifiableList(replicaList);
+
+        final String threadName = "dbbeans-replicas-" + REPLICATED_COUNTER.incrementAndGet();
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = builder.healthCheckPeriod.toMillis();
+        healthChecker.scheduleWithFixedDelay(this::checkUnhealthyReplicas, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the configuration of a new instance.
+     * @param primary the {@link DB} used for updates and transactions.
+     * @return a {@link Builder} to configure the instance.
+     */
+    public static Builder builder(DB primary) {
+        return new Builder(primary);
+    }
+
+    /**
+     * @return a Connection to the primary database. The user is responsible for closing the connection.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection conn = primary.getConnection();
+        if (stickinessNanos == 0)
+            return conn;
+        return wrap(conn, () -> lastWrite.get()[0] = System.nanoTime());
+    }
+
+    /**
+     * @return a Connection to a healthy replica, or to the primary if no replica is healthy or if the current thread
+     * wrote to the primary during the stickiness window. The user is responsible for closing the connection.
+     */
+    @Override
+    public Connection getReadConnection() throws SQLException {
+        if (stickinessNanos > 0 && isSticky())
+            return primary.getConnection();
+
+        // each unhealthy replica found is skipped, so at most replicas.size() attempts are made
+        for (int attempt = 0; attempt < replicas.size(); ++attempt) {
+            Replica replica = selectReplica();
+            if (replica == null)
+                break;
+
+            Connection conn;
+            try {
+                conn = replica.db.getConnection();
+            } catch (SQLTransientConnectionException ex) {
+                // typically a pool timeout: the replica is busy, not unhealthy
+                continue;
+            } catch (SQLException | RuntimeException ex) {
+                replica.failed();
+                continue;
+            }
+            replica.succeeded();
+            replica.active.incrementAndGet();
+            return wrap(conn, replica.active::decrementAndGet);
+        }
+
+        return primary.getConnection();
+    }
+
+    // 0 means no write yet on this thread
+    private boolean isSticky() {
+        long written = lastWrite.get()[0];
+        return written != 0 && System.nanoTime() - written < stickinessNanos;
+    }
+
+    private Replica selectReplica() {
+        int size = replicas.size();
+        if (size == 0)
+            return null;
+
+        // the starting point rotates with both policies, so that LEAST_ACTIVE spreads ties
+        int start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        Replica selected = null;
+        for (int i = 0; i < size; ++i) {
+            Replica replica = replicas.get((start + i) % size);
+            if (!replica.healthy)
+                continue;
+            if (policy == Policy.ROUND_ROBIN)
+                return replica;
+            if (selected == null || replica.active.get() < selected.active.get())
+                selected = replica;
+        }
+        return selected;
+    }
+
+    private void checkUnhealthyReplicas() {
+        for (Replica replica : replicas) {
+            if (replica.healthy)
+                continue;
+
+            Connection conn = null;
+            try {
+                conn = replica.db.getConnection();
+                if (conn.isValid(validationTimeoutSeconds))
+                    replica.succeeded();
+                conn.close();
+            } catch (SQLException | RuntimeException ignore) {
+                // still unhealthy
+            } finally {
+                DBUtils.connectionSilentClose(conn);
+            }
+        }
+    }
+
+    // Runs onClose once when the connection is closed.
+    private static Connection wrap(Connection conn, Runnable onClose) {
+        return (Connection) Proxy.newProxyInstance(
+                DBReplicated.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new TrackedConnection(conn, onClose));
+    }
+
+    /**
+     * Marks the current thread as having written to the primary, so that its reads go to the primary during the
+     * stickiness window. Writes made through {@link DBReplicated#getConnection()} are detected automatically; use this
+     * method for writes made by other means.
+     */
+    public void markWrite() {
+        lastWrite.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * @return the number of replicas.
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * @return the number of replicas currently in the rotation.
+     */
+    public int getHealthyReplicaCount() {
+        int count = 0;
+        for (Replica replica : replicas)
+            if (replica.healthy)
+                ++count;
+        return count;
+    }
+
+    /**
+     * Stops the background health checks. Connections are not affected.
+     */
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+    }
+
+
+    private final class Replica {
+
+        private final DB db;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private volatile boolean healthy = true;
+
+        Replica(DB db) {
+            this.db = db;
+        }
+
+        void failed() {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold)
+                healthy = false;
+        }
+
+        void succeeded() {
+            consecutiveFailures.set(0);
+            healthy = true;
+        }
+    }
+
+
+    private static final class TrackedConnection implements InvocationHandler {
+
+        private final Connection conn;
+        private final Runnable onClose;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        TrackedConnection(Connection conn, Runnable onClose) {
+            this.conn = conn;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        try {
+                            conn.close();
+                        } finally {
+                            onClose.run();
+                        }
+                    }
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBReplicated} instance.
+     */
+    public static class Builder {
+
+        private final DB primary;
+        private final List<DB> replicas = new ArrayList<>();
+        private Policy policy = Policy.ROUND_ROBIN;
+        private Duration stickiness = Duration.ZERO;
+        private int failureThreshold = 3;
+        private Duration healthCheckPeriod = Duration.ofSeconds(10);
+        private Duration validationTimeout = Duration.ofSeconds(5);
+
+        private Builder(DB primary) {
+            if (primary == null)
+                throw new NullPointerException("primary");
+            this.primary = primary;
+        }
+
+        /**
+         * @param replica a {@link DB} giving connections to a read replica.
+         * @return this builder.
+         */
+        public Builder replica(DB replica) {
+            if (replica == null)
+                throw new NullPointerException("replica");
+            replicas.add(replica);
+            return this;
+        }
+
+        /**
+         * @param policy how replicas are selected, default {@link Policy#ROUND_ROBIN}.
+         * @return this builder.
+         */
+        public Builder policy(Policy policy) {
+            if (policy == null)
+                throw new NullPointerException("policy");
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * @param stickiness how long after closing a primary connection the reads of the same thread keep going to the
+         *                   primary, default Duration.ZERO (no stickiness).
+         * @return this builder.
+         */
+        public Builder stickiness(Duration stickiness) {
+            if (stickiness.isNegative())
+                throw new IllegalArgumentException("stickiness cannot be negative: " + stickiness);
+            this.stickiness = stickiness;
+            return this;
+        }
+
+        /**
+         * @param failureThreshold number of consecutive failures to obtain a connection after which a replica is
+         *                         removed from the rotation, default 3.
+         * @return this builder.
+         */
+        public Builder failureThreshold(int failureThreshold) {
+            if (failureThreshold < 1)
+                throw new IllegalArgumentException("failureThreshold must be at least 1: " + failureThreshold);
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * @param healthCheckPeriod how often unhealthy replicas are checked, default 10 seconds.
+         * @return this builder.
+         */
+        public Builder healthCheckPeriod(Duration healthCheckPeriod) {
+            if (healthCheckPeriod.isZero() || healthCheckPeriod.isNegative())
+                throw new IllegalArgumentException("healthCheckPeriod must be positive: " + healthCheckPeriod);
+            this.healthCheckPeriod = healthCheckPeriod;
+            return this;
+        }
+
+        /**
+         * @param validationTimeout timeout passed to Connection.isValid() when checking an unhealthy replica, default 5 seconds.
+         * @return this builder.
+         */
+        public Builder validationTimeout(Duration validationTimeout) {
+            this.validationTimeout = validationTimeout;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBReplicated} instance.
+         */
+        public DBReplicated build() {
+            return new DBReplicated(this);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.dbbeans.sql;
+
+import java.lang.ref.Cleaner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy Stream over the rows of a ResultSet.
+ *
+ * The ResultSet, its statement and optionally its connection are closed when the stream is closed, when all rows have
+ * been consumed or when an exception occurs while reading. If a stream is abandoned without being closed, a Cleaner
+ * closes the resources once the stream has been garbage collected.
+ */
+final class DBResultStream {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private DBResultStream() { }
+
+    /**
+     * Executes a query and returns a lazy Stream of its rows.
+     * @param conn database connection to use.
+     * @param closeConnection true if the connection must be closed with the stream; if opening the stream fails,
+     *                        the connection is never closed by this method.
+     * @param options options applied to the statement; the cursor is always forward-only and read-only.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up parameters for the query, may be null.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row.
+     * @param <T> type of the stream elements.
+     * @return a Stream that should be closed after use, ideally with a try-with-resources statement.
+     * @throws SQLException if a database error occurs
+     */
+    static <T> Stream<T> open(Connection conn, boolean closeConnection, DBQueryOptions options, String query,
+                              DBQuerySetup querySetup, DBRowMapper<T> rowMapper) throws SQLException
+    {
+        DBExecution execution = DBExecution.start(DBOperation.STREAM, query);
+        PreparedStatement stat;
+        try {
+            stat = DBUtils.prepareStatement(conn, query, DBQueryOptions.builder(options).forwardOnlyReadOnly().build());
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
+        }
+        ResultSet rs;
+        DBDeadline.Cancellation cancellation = null;
+        try {
+            cancellation = DBDeadline.arm(stat);
+            if (querySetup != null)
+                querySetup.setupPreparedStatement(execution.capture(stat));
+            execution.prepared();
+            rs = stat.executeQuery();
+            execution.executed();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            DBDeadline.disarm(cancellation);
+            DBUtils.preparedStatementSilentClose(stat);
+            throw ex;
+        }
+
+        Resources resources = new Resources(closeConnection ? conn : null, stat, rs, execution, cancellation);
+        RowSpliterator<T> spliterator = new RowSpliterator<>(resources, rowMapper);
+        Stream<T> stream = StreamSupport.stream(spliterator, false);
+        spliterator.cleanable = CLEANER.register(stream, resources);
+
+        return stream.onClose(spliterator.cleanable::clean);
+    }
+
+
+    // Must not reference the stream, otherwise the Cleaner would never run.
+    private static final class Resources implements Runnable {
+
+        private final Connection conn;
+        private final PreparedStatement stat;
+        private final ResultSet rs;
+        private final DBExecution execution;
+        private final DBDeadline.Cancellation cancellation;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        // only updated by the thread consuming the stream
+        long rows = 0;
+
+        Resources(Connection conn, PreparedStatement stat, ResultSet rs, DBExecution execution, DBDeadline.Cancellation cancellation) {
+            this.conn = conn;
+            this.stat = stat;
+            this.rs = rs;
+            this.execution = execution;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void run() {
+            if (!closed.compareAndSet(false, true))
+                return;
+
+            DBDeadline.disarm(cancellation);
+            try { rs.close(); }
+            catch (SQLException ignore) { }
+            DBUtils.preparedStatementSilentClose(stat);
+            DBUtils.connectionSilentClose(conn);
+            execution.completed(rows);
+        }
+    }
+
+
+    private static final class RowSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+        private final Resources resources;
+        private final DBRowMapper<T> rowMapper;
+
+        Cleaner.Cleanable cleanable;
+
+        RowSpliterator(Resources resources, DBRowMapper<T> rowMapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.resources = resources;
+            this.rowMapper = rowMapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (resources.closed.get())
+                return false;
+
+            T row;
+            try {
+                if (!resources.rs.next()) {
+                    cleanable.clean();
+                    return false;
+                }
+                row = rowMapper.mapRow(resources.rs);
+            } catch (SQLException ex) {
+                resources.execution.failed(ex);
+                cleanable.clean();
+                throw DBDeadline.wrap(ex);
+            } catch (RuntimeException ex) {
+                resources.execution.failed(ex);
+                cleanable.clean();
+                throw ex;
+            }
+
+            ++resources.rows;
+
+            action.accept(row);
+            return true;
+        }
+    }
+}
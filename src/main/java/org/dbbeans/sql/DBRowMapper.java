@@ -0,0 +1,20 @@
+package org.dbbeans.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * In conjunction with the {@link DBAccess} class, use implementations of this interface to insert the code for converting
+ * the current row of a ResultSet into an object.
+ */
+public interface DBRowMapper<T> {
+
+    /**
+     * Implement this function to convert the current row of the ResultSet. Do not call next() on the ResultSet.
+     * @param rs the ResultSet from the execution of the query, positioned on the row to be converted.
+     * @return the object corresponding to the current row.
+     * @throws SQLException if a database error occurs
+     */
+    public T mapRow(ResultSet rs) throws SQLException;
+
+}
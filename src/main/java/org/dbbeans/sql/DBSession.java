@@ -0,0 +1,159 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * {@link DBAccess} running all its operations on a single connection, obtained at the first operation and kept until
+ * the session is closed. Use it to run several independent operations, for instance the queries of a web request,
+ * without obtaining and releasing a connection for each of them:
+ * try (DBSession session = dbAccess.openSession()) { ... }
+ *
+ * The connection stays in auto-commit mode: each operation is committed on its own, as with {@link DBAccess}. Use
+ * {@link DBTransaction} to group updates. With a {@link DBPooled} configured with a statement cache, statements
+ * prepared several times during the session are reused.
+ *
+ * Reads and updates use the same connection, obtained through {@link DB#getConnection()}. A session is not thread-safe,
+ * and a stream obtained from a session must be closed before the session is used again.
+ */
+public class DBSession extends DBAccess implements AutoCloseable {
+
+    private final DB db;
+    private final Holder holder;
+
+    /**
+     * @param db a {@link DB} object to obtain the connection to the database.
+     */
+    public DBSession(DB db) {
+        this(db, DBQueryOptions.DEFAULT);
+    }
+
+    /**
+     * @param db a {@link DB} object to obtain the connection to the database.
+     * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+     */
+    public DBSession(DB db, DBQueryOptions options) {
+        this(db, options, new Holder());
+    }
+
+    DBSession(DB db, DBQueryOptions options, Holder holder) {
+        super(db, options);
+        this.db = db;
+        this.holder = holder;
+    }
+
+    /**
+     * @param options a {@link DBQueryOptions} object, containing the options to apply.
+     * @return a DBSession sharing the connection of this session and using the specified options. Closing either
+     * session closes the connection.
+     */
+    @Override
+    public DBSession withOptions(DBQueryOptions options) {
+        return new DBSession(db, options, holder);
+    }
+
+    /**
+     * @return the connection of the session, obtained on first use. Closing the returned connection has no effect;
+     * it is closed by {@link DBSession#close()}.
+     * @throws SQLException if a database error occurs
+     * @throws IllegalStateException if the session is closed.
+     */
+    @Override
+    protected Connection getConnection(boolean read) throws SQLException {
+        if (holder.closed)
+            throw new IllegalStateException("Session closed.");
+
+        if (holder.connection == null) {
+            Connection conn = DBInstrumentation.getConnection(db, false);
+            holder.connection = conn;
+            holder.view = (Connection) Proxy.newProxyInstance(
+                    DBSession.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new SessionConnection(conn));
+        }
+
+        return holder.view;
+    }
+
+    Holder getHolder() {
+        return holder;
+    }
+
+    /**
+     * @return true if the session currently holds a connection.
+     */
+    public boolean isConnected() {
+        return holder.connection != null;
+    }
+
+    /**
+     * @return true if the session has been closed.
+     */
+    public boolean isClosed() {
+        return holder.closed;
+    }
+
+    /**
+     * Releases the connection of the session, if one was obtained. Further operations throw an IllegalStateException.
+     * @throws SQLRuntimeException if an SQLException is thrown while closing the connection.
+     */
+    @Override
+    public void close() {
+        if (holder.closed)
+            return;
+
+        holder.closed = true;
+        Connection conn = holder.connection;
+        holder.connection = null;
+        holder.view = null;
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ex) {
+                throw DBDeadline.wrap(ex);
+            }
+        }
+    }
+
+
+    // shared by a session and the sessions created by withOptions()
+    static final class Holder {
+        private Connection connection;
+        private Connection view;
+        private boolean closed;
+    }
+
+
+    // The connection as seen by DBAccess operations, which close it after each operation.
+    private static final class SessionConnection implements InvocationHandler {
+
+        private final Connection conn;
+
+        SessionConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.dbbeans.sql;
+
+import java.sql.SQLTimeoutException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * This class gives access to data split across several databases (shards) according to a shard key, for instance a tenant id.
+ *
+ * Operations on a single key are routed to the shard owning the key through {@link DBShardedAccess#forKey(Object)},
+ * which returns a regular {@link DBAccess}. Queries spanning all shards run on all shards in parallel, and their
+ * results are merged by a combiner function or, for sorted results, by an ordered k-way merge.
+ *
+ * Fan-out queries can be given a timeout. Shards that fail or do not answer in time are reported in the
+ * {@link DBShardedResult} next to the partial result of the other shards. The timeout is also applied as the query
+ * timeout of the statements, so that the database cancels queries that are not waited for anymore.
+ * @param <K> type of the shard keys.
+ */
+public class DBShardedAccess<K> implements AutoCloseable {
+
+    private final List<DBAccess> shards;
+    private final ToIntFunction<? super K> shardFunction;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Creates a DBShardedAccess assigning keys to shards by hash code, and running fan-out queries on virtual threads
+     * if available or on a pool of one thread per shard otherwise. The threads are released by {@link DBShardedAccess#close()}.
+     * @param shards the {@link DB} objects of the shards, in shard index order.
+     */
+    public DBShardedAccess(List<? extends DB> shards) {
+        this(shards, key -> Math.floorMod(key.hashCode(), shards.size()), DBAsyncAccess.createDefaultExecutor(shards.size()), true);
+    }
+
+    /**
+     * Creates a DBShardedAccess running fan-out queries on the specified executor, which is not shut down by {@link DBShardedAccess#close()}.
+     * @param shards the {@link DB} objects of the shards, in shard index order.
+     * @param shardFunction returns the index of the shard owning a key, between 0 and the number of shards - 1.
+     * @param executor the Executor running the fan-out queries; it should be able to run one task per shard at the same time.
+     */
+    public DBShardedAccess(List<? extends DB> shards, ToIntFunction<? super K> shardFunction, Executor executor) {
+        this(shards, shardFunction, executor, false);
+    }
+
+    private DBShardedAccess(List<? extends DB> shards, ToIntFunction<? super K> shardFunction, Executor executor, boolean ownsExecutor) {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("At least one shard is required.");
+
+        List<DBAccess> shardAccesses = new ArrayList<>(shards.size());
+        for (DB shard : shards)
+            shardAccesses.add(new DBAccess(shard));
+        this.shards = Collections.unmodifiableList(shardAccesses);
+        this.shardFunction = shardFunction;
+        this.executor = executor;
+        ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @param key a shard key.
+     * @return the index of the shard owning the key.
+     * @throws IllegalStateException if the shard function returns an invalid index.
+     */
+    public int shardOf(K key) {
+        int shard = shardFunction.applyAsInt(key);
+        if (shard < 0 || shard >= shards.size())
+            throw new IllegalStateException("Shard function returned " + shard + " for key " + key + ", there are " + shards.size() + " shards.");
+        return shard;
+    }
+
+    /**
+     * Use this method for all operations concerning a single key, for instance: sharded.forKey(tenantId).processUpdate(...).
+     * @param key a shard key.
+     * @return a {@link DBAccess} for the shard owning the key.
+     */
+    public DBAccess forKey(K key) {
+        return shards.get(shardOf(key));
+    }
+
+    /**
+     * @param shard a shard index.
+     * @return a {@link DBAccess} for the shard.
+     */
+    public DBAccess getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * Runs a query on all shards in parallel and combines the results, waiting as long as necessary.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, called once per shard
+     *                          to process its results; it must be thread-safe.
+     * @param combiner combines the results of the shards, in shard index order.
+     * @param <T> type of the result of each shard.
+     * @param <R> type of the combined result.
+     * @return a {@link DBShardedResult} containing the combined result and the failures of the shards, if any.
+     */
+    public <T, R> DBShardedResult<R> processQueryOnAllShards(String query, DBQuerySetup querySetup,
+                                                           DBQueryRetrieveData<T> queryRetrieveData,
+                                                           Function<List<T>, R> combiner)
+    {
+        return processQueryOnAllShards(query, querySetup, queryRetrieveData, combiner, null);
+    }
+
+    /**
+     * Runs a query on all shards in parallel and combines the results of the shards that answered before the timeout.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, called once per shard
+     *                          to process its results; it must be thread-safe.
+     * @param combiner combines the results of the shards that succeeded, in shard index order.
+     * @param timeout how long to wait for the shards, null to wait as long as necessary.
+     * @param <T> type of the result of each shard.
+     * @param <R> type of the combined result.
+     * @return a {@link DBShardedResult} containing the combined result and the failures of the shards, if any.
+     */
+    public <T, R> DBShardedResult<R> processQueryOnAllShards(String query, DBQuerySetup querySetup,
+                                                           DBQueryRetrieveData<T> queryRetrieveData,
+                                                           Function<List<T>, R> combiner, Duration timeout)
+    {
+        SortedMap<Integer, RuntimeException> failures = new TreeMap<>();
+        List<T> results = gather(shard -> shard.processQuery(query, querySetup, queryRetrieveData), timeout, failures);
+        return new DBShardedResult<>(combiner.apply(results), shards.size(), failures);
+    }
+
+    /**
+     * Runs a query on all shards in parallel and merges the rows into a single sorted list. The query must return
+     * its rows sorted in the same order as the comparator, typically with an ORDER BY clause; each shard result is then
+     * merged in a single pass (k-way merge).
+     * @param query SQL query returning sorted rows.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the query parameters.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row; it must be thread-safe.
+     * @param order the order of the rows returned by the query.
+     * @param timeout how long to wait for the shards, null to wait as long as necessary.
+     * @param <T> type of the rows.
+     * @return a {@link DBShardedResult} containing the sorted rows of the shards that succeeded and the failures of the others.
+     */
+    public <T> DBShardedResult<List<T>> processSortedQueryOnAllShards(String query, DBQuerySetup querySetup,
+                                                                     DBRowMapper<T> rowMapper,
+                                                                     Comparator<? super T> order, Duration timeout)
+    {
+        DBQueryRetrieveData<List<T>> retrieveRows = rs -> {
+            List<T> rows = new ArrayList<>();
+            while (rs.next())
+                rows.add(rowMapper.mapRow(rs));
+            return rows;
+        };
+        return processQueryOnAllShards(query, querySetup, retrieveRows, sortedRows -> merge(sortedRows, order), timeout);
+    }
+
+    /**
+     * Merges sorted lists into a single sorted list. Rows comparing equal keep the order of the lists.
+     * @param sortedLists lists sorted according to order.
+     * @param order the order of the lists.
+     * @param <T> type of the elements.
+     * @return a new sorted list containing all elements.
+     */
+    public static <T> List<T> merge(List<List<T>> sortedLists, Comparator<? super T> order) {
+        int total = 0;
+        for (List<T> list : sortedLists)
+            total += list.size();
+        List<T> merged = new ArrayList<>(total);
+
+        // heap entries: [list index, position in list]
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, sortedLists.size()), (a, b) -> {
+            int comparison = order.compare(sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1]));
+            return comparison != 0 ? comparison : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < sortedLists.size(); ++i)
+            if (!sortedLists.get(i).isEmpty())
+                heap.add(new int[] { i, 0 });
+
+        while (!heap.isEmpty()) {
+            int[] head = heap.poll();
+            List<T> list = sortedLists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size())
+                heap.add(head);
+        }
+        return merged;
+    }
+
+    /**
+     * Shuts down the executor if it was created by this instance.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+
+    private <T> List<T> gather(Function<DBAccess, T> work, Duration timeout, SortedMap<Integer, RuntimeException> failures) {
+        DBQueryOptions timeoutOptions = null;
+        if (timeout != null)
+            timeoutOptions = DBQueryOptions.builder().queryTimeout((int) Math.max(1, (timeout.toMillis() + 999) / 1000)).build();
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (DBAccess shard : shards) {
+            DBAccess shardAccess = timeoutOptions == null ? shard : shard.withOptions(timeoutOptions);
+            futures.add(CompletableFuture.supplyAsync(() -> work.apply(shardAccess), executor));
+        }
+
+        long deadline = timeout == null ? 0 : System.nanoTime() + timeout.toNanos();
+        List<T> results = new ArrayList<>(shards.size());
+        for (int i = 0; i < futures.size(); ++i) {
+            CompletableFuture<T> future = futures.get(i);
+            try {
+                if (timeout == null)
+                    results.add(future.get());
+                else
+                    results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                failures.put(i, new DBTimeoutException(new SQLTimeoutException("Shard " + i + " did not answer within " + timeout + ".")));
+            } catch (ExecutionException ex) {
+                failures.put(i, asRuntimeException(ex.getCause()));
+            } catch (CancellationException ex) {
+                failures.put(i, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < futures.size(); ++j) {
+                    futures.get(j).cancel(true);
+                    failures.put(j, new IllegalStateException("Interrupted while waiting for shard " + j + ".", ex));
+                }
+                break;
+            }
+        }
+        return results;
+    }
+
+    private static RuntimeException asRuntimeException(Throwable failure) {
+        if (failure instanceof RuntimeException)
+            return (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        return new IllegalStateException(failure);
+    }
+}
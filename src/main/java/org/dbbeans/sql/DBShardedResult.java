@@ -0,0 +1,78 @@
+package org.dbbeans.sql;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Result of a query run on all shards by {@link DBShardedAccess}: the combination of the results of the shards that
+ * answered in time, and the failures of the others.
+ * @param <R> type of the combined result.
+ */
+public final class DBShardedResult<R> {
+
+    private final R result;
+    private final int shardCount;
+    private final SortedMap<Integer, RuntimeException> failures;
+
+    DBShardedResult(R result, int shardCount, SortedMap<Integer, RuntimeException> failures) {
+        this.result = result;
+        this.shardCount = shardCount;
+        this.failures = Collections.unmodifiableSortedMap(failures);
+    }
+
+    /**
+     * @return the combination of the results of the shards that succeeded, possibly partial.
+     */
+    public R getResult() {
+        return result;
+    }
+
+    /**
+     * @return the combined result, if all shards succeeded.
+     * @throws SQLRuntimeException if a shard timed out (the cause is then a SQLTimeoutException) or failed with a
+     * database error; the exceptions of the other failed shards, if any, are added as suppressed exceptions.
+     * @throws RuntimeException the exception of the first failed shard, if it is not a database error.
+     */
+    public R getCompleteResult() {
+        if (failures.isEmpty())
+            return result;
+
+        RuntimeException first = null;
+        for (RuntimeException failure : failures.values()) {
+            if (first == null)
+                first = failure;
+            else if (failure != first && !Arrays.asList(first.getSuppressed()).contains(failure))
+                first.addSuppressed(failure);
+        }
+        throw first;
+    }
+
+    /**
+     * @return true if at least one shard failed or timed out.
+     */
+    public boolean isPartial() {
+        return !failures.isEmpty();
+    }
+
+    /**
+     * @return the number of shards that contributed to the result.
+     */
+    public int getSucceededCount() {
+        return shardCount - failures.size();
+    }
+
+    /**
+     * @return the exceptions of the shards that failed, by shard index. Shards that timed out have a
+     * SQLRuntimeException caused by a SQLTimeoutException.
+     */
+    public Map<Integer, RuntimeException> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "DBShardedResult[" + getSucceededCount() + "/" + shardCount + " shards, failures=" + failures.keySet() + "]: " + result;
+    }
+}
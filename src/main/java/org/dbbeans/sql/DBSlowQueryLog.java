@@ -0,0 +1,211 @@
+package org.dbbeans.sql;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * {@link DBListener} recording the executions slower than a threshold, and optionally a random sample of the other
+ * executions, with their SQL text, timings, caller stack and, if enabled with {@link DBSlowQueryLog#setCaptureParameters(boolean)},
+ * parameter values.
+ *
+ * Records are kept in a ring buffer of fixed capacity: once it is full, each new record replaces the oldest one, so
+ * that memory use stays bounded whatever the load. Use {@link DBSlowQueryLog#dump()} to retrieve the records.
+ * Register an instance with {@link DBInstrumentation#addListener(DBListener)}.
+ */
+public class DBSlowQueryLog implements DBListener {
+
+    /**
+     * Maximum number of stack frames recorded by default.
+     */
+    public static final int DEFAULT_MAX_STACK_DEPTH = 16;
+
+    private static final StackTraceElement[] NO_STACK = new StackTraceElement[0];
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final AtomicReferenceArray<DBSlowQueryRecord> records;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile long thresholdNanos;
+    private volatile double sampleRate;
+    private volatile int maxStackDepth = DEFAULT_MAX_STACK_DEPTH;
+    private volatile boolean captureParameters = false;
+
+    /**
+     * Creates a log recording only the executions slower than the threshold.
+     * @param threshold executions taking at least this long, connection acquisition included, are recorded.
+     * @param capacity maximum number of records kept.
+     */
+    public DBSlowQueryLog(Duration threshold, int capacity) {
+        this(threshold, 0, capacity);
+    }
+
+    /**
+     * Creates a log recording the executions slower than the threshold and a random sample of the other executions.
+     * @param threshold executions taking at least this long, connection acquisition included, are recorded.
+     * @param sampleRate probability, between 0 and 1, that an execution faster than the threshold is recorded.
+     * @param capacity maximum number of records kept.
+     */
+    public DBSlowQueryLog(Duration threshold, double sampleRate, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+
+        records = new AtomicReferenceArray<>(capacity);
+        setThreshold(threshold);
+        setSampleRate(sampleRate);
+    }
+
+    /**
+     * @param threshold executions taking at least this long, connection acquisition included, are recorded.
+     */
+    public void setThreshold(Duration threshold) {
+        if (threshold.isNegative())
+            throw new IllegalArgumentException("threshold cannot be negative: " + threshold);
+        thresholdNanos = threshold.toNanos();
+    }
+
+    /**
+     * @return the duration above which executions are recorded.
+     */
+    public Duration getThreshold() {
+        return Duration.ofNanos(thresholdNanos);
+    }
+
+    /**
+     * @param sampleRate probability, between 0 and 1, that an execution faster than the threshold is recorded.
+     */
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1)
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the probability that an execution faster than the threshold is recorded.
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param maxStackDepth maximum number of caller stack frames recorded, 0 to disable stack capture.
+     */
+    public void setMaxStackDepth(int maxStackDepth) {
+        if (maxStackDepth < 0)
+            throw new IllegalArgumentException("maxStackDepth cannot be negative: " + maxStackDepth);
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    /**
+     * @return the maximum number of caller stack frames recorded.
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * Enables or disables the recording of statement parameters. Capturing parameters wraps every statement in a proxy,
+     * whether it ends up recorded or not. This setting is read when the log is registered with
+     * {@link DBInstrumentation#addListener(DBListener)}, so it must be set before registration.
+     * @param captureParameters true to record the parameter values of statements, false by default.
+     */
+    public void setCaptureParameters(boolean captureParameters) {
+        this.captureParameters = captureParameters;
+    }
+
+    /**
+     * @return the maximum number of records kept.
+     */
+    public int getCapacity() {
+        return records.length();
+    }
+
+    @Override
+    public boolean capturesParameters() {
+        return captureParameters;
+    }
+
+    @Override
+    public void statementCompleted(DBStatementEvent event) {
+        boolean slow = event.getTotalNanos() >= thresholdNanos;
+        if (!slow) {
+            double rate = sampleRate;
+            if (rate == 0 || ThreadLocalRandom.current().nextDouble() >= rate)
+                return;
+        }
+
+        long position = sequence.getAndIncrement();
+        records.set((int) (position % records.length()), new DBSlowQueryRecord(
+                position,
+                Instant.now(),
+                Thread.currentThread().getName(),
+                event,
+                captureCallerStack(),
+                slow));
+    }
+
+    // Frames of this library and of reflection are skipped, so that the stack starts with the calling code.
+    private StackTraceElement[] captureCallerStack() {
+        int depth = maxStackDepth;
+        if (depth == 0)
+            return NO_STACK;
+
+        return STACK_WALKER.walk(frames -> frames
+                .dropWhile(frame -> isInternal(frame.getClassName()))
+                .limit(depth)
+                .map(StackWalker.StackFrame::toStackTraceElement)
+                .toArray(StackTraceElement[]::new));
+    }
+
+    private static boolean isInternal(String className) {
+        return className.startsWith("org.dbbeans.sql.")
+                || className.startsWith("java.lang.reflect.")
+                || className.startsWith("jdk.internal.")
+                || className.startsWith("jdk.proxy")
+                || className.startsWith("com.sun.proxy.");
+    }
+
+    /**
+     * @return the records currently kept, oldest first.
+     */
+    public List<DBSlowQueryRecord> dump() {
+        long end = sequence.get();
+        long start = Math.max(0, end - records.length());
+
+        List<DBSlowQueryRecord> dump = new ArrayList<>((int) (end - start));
+        for (long position = start; position < end; ++position) {
+            DBSlowQueryRecord record = records.get((int) (position % records.length()));
+            // skip slots being written, or already overwritten by a concurrent execution
+            if (record != null && record.getSequence() == position)
+                dump.add(record);
+        }
+        return dump;
+    }
+
+    /**
+     * @return the total number of executions recorded since the log was created or cleared, including those no longer kept.
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    /**
+     * Discards all records.
+     */
+    public void clear() {
+        for (int i = 0; i < records.length(); ++i)
+            records.set(i, null);
+        sequence.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return dump().stream().map(DBSlowQueryRecord::toString).collect(Collectors.joining("\n"));
+    }
+}
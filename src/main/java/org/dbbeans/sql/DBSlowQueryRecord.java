@@ -0,0 +1,108 @@
+package org.dbbeans.sql;
+
+import java.time.Instant;
+
+import java.util.List;
+
+/**
+ * An execution recorded by {@link DBSlowQueryLog}, either because it exceeded the threshold or because it was sampled.
+ */
+public final class DBSlowQueryRecord {
+
+    private final long sequence;
+    private final Instant timestamp;
+    private final String threadName;
+    private final DBStatementEvent event;
+    private final StackTraceElement[] callerStack;
+    private final boolean slow;
+
+    DBSlowQueryRecord(long sequence, Instant timestamp, String threadName, DBStatementEvent event,
+                      StackTraceElement[] callerStack, boolean slow)
+    {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.threadName = threadName;
+        this.event = event;
+        this.callerStack = callerStack;
+        this.slow = slow;
+    }
+
+    /**
+     * @return the position of this record in the sequence of all records of the log, starting at 0.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return when the execution completed.
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the name of the thread that performed the execution.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return the {@link DBStatementEvent} describing the execution, with timings split by phase.
+     */
+    public DBStatementEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the SQL text of the statement.
+     */
+    public String getSql() {
+        return event.getSql();
+    }
+
+    /**
+     * @return the parameter values set by the {@link DBQuerySetup}, see {@link DBStatementEvent#getParameters()}.
+     */
+    public List<Object> getParameters() {
+        return event.getParameters();
+    }
+
+    /**
+     * @return the stack of the code that called {@link DBAccess}, {@link DBTransaction} or {@link DBUtils}, innermost frame first.
+     * Empty if stack capture is disabled.
+     */
+    public StackTraceElement[] getCallerStack() {
+        return callerStack.clone();
+    }
+
+    /**
+     * @return true if the execution exceeded the threshold, false if it was recorded by sampling.
+     */
+    public boolean isSlow() {
+        return slow;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        description.append(timestamp).append(" [").append(threadName).append("] ")
+                .append(slow ? "SLOW " : "SAMPLED ")
+                .append(event.getOperation()).append(' ')
+                .append(event.isSuccess() ? "OK" : "FAILED")
+                .append(" total=").append(event.getTotalNanos() / 1000)
+                .append("us acquire=").append(event.getAcquireNanos() / 1000)
+                .append("us execute=").append((event.getPrepareNanos() + event.getExecuteNanos()) / 1000)
+                .append("us fetch=").append(event.getProcessNanos() / 1000)
+                .append("us rows=").append(event.getRows())
+                .append('\n').append("    ").append(event.getSql());
+        if (!event.getParameters().isEmpty())
+            description.append('\n').append("    parameters: ").append(event.getParameters());
+        if (!event.isSuccess())
+            description.append('\n').append("    failure: ").append(event.getFailure());
+        for (StackTraceElement frame : callerStack)
+            description.append('\n').append("    at ").append(frame);
+        return description.toString();
+    }
+}
@@ -0,0 +1,275 @@
+package org.dbbeans.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of PreparedStatements belonging to a single physical connection.
+ *
+ * Statements handed out by the cache are proxies: closing them clears their parameters, closes their open ResultSets
+ * and puts the underlying statement back in the cache instead of closing it. Statements are keyed by SQL text,
+ * generated keys mode and ResultSet type and concurrency. A statement is removed from the cache while it is in use, so that nested use of the same SQL
+ * text on the same connection gets its own statement.
+ */
+final class DBStatementCache {
+
+    private final Connection physical;
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    DBStatementCache(Connection physical, int maxSize, LongAdder hits, LongAdder misses) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+
+        statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > DBStatementCache.this.maxSize) {
+                    DBUtils.preparedStatementSilentClose(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached statement, or prepares a new one if no idle statement exists for the same SQL text and mode.
+     * @param logical the connection to be returned by PreparedStatement.getConnection().
+     * @param sql SQL query.
+     * @param args the arguments of the Connection.prepareStatement() call: the SQL text, optionally followed by
+     *             either the generated keys mode or the ResultSet type and concurrency.
+     * @return a PreparedStatement that goes back to the cache when closed.
+     * @throws SQLException if a database error occurs
+     */
+    synchronized PreparedStatement prepare(Connection logical, Object[] args) throws SQLException {
+        String sql = (String) args[0];
+        Key key;
+        if (args.length == 1)
+            key = new Key(sql, -1, -1, -1);
+        else if (args.length == 2)
+            key = new Key(sql, (Integer) args[1], -1, -1);
+        else
+            key = new Key(sql, -1, (Integer) args[1], (Integer) args[2]);
+
+        PreparedStatement stat = statements.remove(key);
+        if (stat != null)
+            hits.increment();
+        else {
+            misses.increment();
+            if (key.autoGeneratedKeys != -1)
+                stat = physical.prepareStatement(sql, key.autoGeneratedKeys);
+            else if (key.resultSetType != -1)
+                stat = physical.prepareStatement(sql, key.resultSetType, key.resultSetConcurrency);
+            else
+                stat = physical.prepareStatement(sql);
+        }
+
+        return (PreparedStatement) Proxy.newProxyInstance(
+                DBStatementCache.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                new CachedStatement(key, stat, logical));
+    }
+
+    private synchronized void giveBack(Key key, PreparedStatement stat) {
+        if (statements.containsKey(key))
+            DBUtils.preparedStatementSilentClose(stat);
+        else
+            statements.put(key, stat);
+    }
+
+    /**
+     * @param args the arguments of a Connection.prepareStatement() call.
+     * @return true if statements prepared with such arguments can be cached.
+     */
+    static boolean isCacheable(Object[] args) {
+        if (args.length == 1)
+            return true;
+        if (args.length == 2)
+            return args[1] instanceof Integer;
+        return args.length == 3 && args[1] instanceof Integer && args[2] instanceof Integer;
+    }
+
+    /**
+     * @return the number of idle statements in the cache.
+     */
+    synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    synchronized void clear() {
+        for (PreparedStatement stat : statements.values())
+            DBUtils.preparedStatementSilentClose(stat);
+        statements.clear();
+    }
+
+
+    private static final class Key {
+
+        private final String sql;
+        private final int autoGeneratedKeys;
+        private final int resultSetType;
+        private final int resultSetConcurrency;
+
+        Key(String sql, int autoGeneratedKeys, int resultSetType, int resultSetConcurrency) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return autoGeneratedKeys == key.autoGeneratedKeys
+                    && resultSetType == key.resultSetType
+                    && resultSetConcurrency == key.resultSetConcurrency
+                    && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, autoGeneratedKeys, resultSetType, resultSetConcurrency);
+        }
+    }
+
+
+    private final class CachedStatement implements InvocationHandler {
+
+        private final Key key;
+        private final PreparedStatement stat;
+        private final Connection logical;
+        private final List<ResultSet> resultSets = new ArrayList<>(2);
+
+        private boolean closed = false;
+        private boolean batched = false;
+        private int fetchSize = -1;
+        private int fetchDirection = -1;
+        private int maxRows = -1;
+        private int queryTimeout = -1;
+
+        CachedStatement(Key key, PreparedStatement stat, Connection logical) {
+            this.key = key;
+            this.stat = stat;
+            this.logical = logical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return logical;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + stat + "]";
+            }
+
+            if (closed)
+                throw new SQLException("Statement is closed.");
+
+            rememberSettings(method.getName());
+
+            Object result;
+            try {
+                result = method.invoke(stat, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+
+            if (result instanceof ResultSet)
+                resultSets.add((ResultSet) result);
+
+            return result;
+        }
+
+        // settings changed by the user are restored before the statement goes back to the cache
+        private void rememberSettings(String methodName) throws SQLException {
+            switch (methodName) {
+                case "addBatch":
+                    batched = true;
+                    break;
+                case "setFetchSize":
+                    if (fetchSize == -1)
+                        fetchSize = stat.getFetchSize();
+                    break;
+                case "setFetchDirection":
+                    if (fetchDirection == -1)
+                        fetchDirection = stat.getFetchDirection();
+                    break;
+                case "setMaxRows":
+                    if (maxRows == -1)
+                        maxRows = stat.getMaxRows();
+                    break;
+                case "setQueryTimeout":
+                    if (queryTimeout == -1)
+                        queryTimeout = stat.getQueryTimeout();
+                    break;
+            }
+        }
+
+        // a statement that cannot be reset, for instance because its connection died, is simply dropped
+        private void release() {
+            if (closed)
+                return;
+            closed = true;
+
+            try {
+                for (ResultSet rs : resultSets)
+                    rs.close();
+                resultSets.clear();
+                stat.clearParameters();
+                if (batched)
+                    stat.clearBatch();
+                if (fetchSize != -1)
+                    stat.setFetchSize(fetchSize);
+                if (fetchDirection != -1)
+                    stat.setFetchDirection(fetchDirection);
+                if (maxRows != -1)
+                    stat.setMaxRows(maxRows);
+                if (queryTimeout != -1)
+                    stat.setQueryTimeout(queryTimeout);
+                stat.clearWarnings();
+            } catch (SQLException ex) {
+                DBUtils.preparedStatementSilentClose(stat);
+                return;
+            }
+
+            giveBack(key, stat);
+        }
+    }
+}
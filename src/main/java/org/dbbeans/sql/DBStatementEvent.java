@@ -0,0 +1,134 @@
+package org.dbbeans.sql;
+
+import java.util.List;
+
+/**
+ * Describes the execution of a statement, as reported to {@link DBListener}s.
+ *
+ * The execution is split in phases: preparation (preparing the statement and setting its parameters), execution, and
+ * result processing (reading the results of a query, or retrieving generated keys). For operations where the
+ * statement is executed by user code, like {@link DBUpdates} or {@link DBQueries}, the whole callback is counted as
+ * execution time.
+ */
+public final class DBStatementEvent {
+
+    private final DBOperation operation;
+    private final String sql;
+    private final long acquireNanos;
+    private final long prepareNanos;
+    private final long executeNanos;
+    private final long processNanos;
+    private final long rows;
+    private final List<Object> parameters;
+    private final Throwable failure;
+
+    DBStatementEvent(DBOperation operation, String sql, long acquireNanos, long prepareNanos, long executeNanos,
+                     long processNanos, long rows, List<Object> parameters, Throwable failure)
+    {
+        this.operation = operation;
+        this.sql = sql;
+        this.acquireNanos = acquireNanos;
+        this.prepareNanos = prepareNanos;
+        this.executeNanos = executeNanos;
+        this.processNanos = processNanos;
+        this.rows = rows;
+        this.parameters = parameters;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the kind of operation.
+     */
+    public DBOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the SQL text of the statement.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the SQL text with literals replaced by '?' and whitespace normalized, see {@link DBInstrumentation#fingerprint(String)}.
+     */
+    public String getFingerprint() {
+        return DBInstrumentation.fingerprint(sql);
+    }
+
+    /**
+     * @return time spent obtaining the connection just before this statement on the same thread, in nanoseconds,
+     * or 0 if the connection was already open (e.g. inside a transaction).
+     */
+    public long getAcquireNanos() {
+        return acquireNanos;
+    }
+
+    /**
+     * @return time spent preparing the statement and setting its parameters, in nanoseconds.
+     */
+    public long getPrepareNanos() {
+        return prepareNanos;
+    }
+
+    /**
+     * @return time spent executing the statement, in nanoseconds.
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * @return time spent processing the results, in nanoseconds.
+     */
+    public long getProcessNanos() {
+        return processNanos;
+    }
+
+    /**
+     * @return total time of the operation, connection acquisition included, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return acquireNanos + prepareNanos + executeNanos + processNanos;
+    }
+
+    /**
+     * @return number of rows affected by an update, or read through a Stream, -1 if unknown.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the parameter values set by the {@link DBQuerySetup} of the operation, by parameter index (the value
+     * for parameter 1 at position 0). Parameters are only recorded when a registered listener requests them through
+     * {@link DBListener#capturesParameters()}, and never for batches or operations where statements are executed by user code.
+     * Parameters that were not set, or set to SQL NULL, are null. Streams, readers and LOBs are represented by a placeholder string.
+     * @return the parameter values, or an empty list if they were not recorded.
+     */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the exception that made the operation fail, null if it succeeded.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the operation succeeded.
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return operation + " [" + getFingerprint() + "] " + (isSuccess() ? "OK" : "FAILED")
+                + " total=" + getTotalNanos() / 1000 + "us acquire=" + acquireNanos / 1000 + "us prepare=" + prepareNanos / 1000
+                + "us execute=" + executeNanos / 1000 + "us process=" + processNanos / 1000 + "us rows=" + rows;
+    }
+}
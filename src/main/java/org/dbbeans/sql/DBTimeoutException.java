@@ -0,0 +1,20 @@
+package org.dbbeans.sql;
+
+import java.sql.SQLException;
+
+/**
+ * This exception is thrown instead of a plain {@link SQLRuntimeException} when a database operation failed because it ran
+ * out of time: the driver reported a SQLTimeoutException, or the {@link DBDeadline} of the thread expired, in which case
+ * the statement may have been cancelled.
+ */
+public class DBTimeoutException extends SQLRuntimeException {
+
+    /**
+     * Creates a DBTimeoutException from a SQLException
+     * @param ex the SQLException to be rethrown as a DBTimeoutException
+     */
+    public DBTimeoutException(SQLException ex) {
+        super(ex);
+    }
+
+}
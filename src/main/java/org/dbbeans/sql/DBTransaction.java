@@ -2,26 +2,183 @@ package org.dbbeans.sql;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+import java.time.Duration;
+
+import java.util.stream.Stream;
 
 /**
  * This class is used to encapsulate JDBC transactions.
+ *
+ * The connection is obtained from the {@link DB} when the first statement is added, not when the transaction is
+ * created, and it is released by {@link #commit()}, {@link #rollback()} or {@link #close()}. A transaction in which
+ * no statement was added never holds a connection, and committing or rolling it back does nothing. Once committed
+ * or rolled back, a transaction cannot be used anymore.
+ *
+ * Use try-with-resources to make sure the connection is released if the transaction is not committed:
+ * <pre>
+ * try (DBTransaction transaction = new DBTransaction(db)) {
+ *     transaction.addUpdate(...);
+ *     transaction.commit();
+ * }
+ * </pre>
+ *
+ * Use {@link #builder(DB)} to run the transaction in read-only mode, with a given isolation level or within a time
+ * limit. The settings of the connection are restored when the transaction ends, before the connection is released.
  */
-public class DBTransaction {
+public class DBTransaction implements AutoCloseable {
 
     final DB db;
-    final Connection conn;
+
+    private final boolean readOnly;
+    private final int isolation;
+    private final long timeoutNanos;
+
+    private Connection conn;
+    private boolean done;
+    private DBQueryOptions options;
+
+    private boolean priorAutoCommit;
+    private boolean priorReadOnly;
+    private int priorIsolation;
+    private long deadline;
 
     /**
      * @param db a {@link DB} object to obtain connections to the database.
      */
     public DBTransaction(DB db) {
-        this.db = db;
+        this(db, DBQueryOptions.DEFAULT);
+    }
+
+    /**
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+     */
+    public DBTransaction(DB db, DBQueryOptions options) {
+        this(builder(db).options(options));
+    }
+
+    /**
+     * @param builder the {@link Builder} containing the configuration of the transaction.
+     */
+    protected DBTransaction(Builder builder) {
+        db = builder.db;
+        options = builder.options;
+        readOnly = builder.readOnly;
+        isolation = builder.isolation;
+        timeoutNanos = builder.timeout == null ? 0 : builder.timeout.toNanos();
+    }
+
+    /**
+     * Starts the configuration of a new transaction.
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @return a {@link Builder} to configure the transaction.
+     */
+    public static Builder builder(DB db) {
+        return new Builder(db);
+    }
+
+    // obtains and sets up the connection on first use
+    Connection connection() {
+        if (done)
+            throw new IllegalStateException("Transaction already committed or rolled back");
+
+        if (conn == null) {
+            Connection connection = null;
+            try {
+                connection = DBInstrumentation.getConnection(db, false);
+                priorAutoCommit = connection.getAutoCommit();
+                priorReadOnly = connection.isReadOnly();
+                priorIsolation = connection.getTransactionIsolation();
+                if (readOnly)
+                    connection.setReadOnly(true);
+                if (isolation != Connection.TRANSACTION_NONE && isolation != priorIsolation)
+                    connection.setTransactionIsolation(isolation);
+                connection.setAutoCommit(false);
+            } catch (SQLException ex) {
+                if (connection != null)
+                    restoreSettings(connection);
+                DBUtils.connectionSilentClose(connection);
+                throw DBDeadline.wrap(ex);
+            }
+            conn = connection;
+            deadline = System.nanoTime() + timeoutNanos;
+        }
+
+        return conn;
+    }
+
+    // applies the remaining time of the transaction to the next statement
+    private DBQueryOptions statementOptions() {
+        if (timeoutNanos == 0)
+            return options;
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+            throw DBDeadline.wrap(new SQLTimeoutException("Transaction timeout of " + Duration.ofNanos(timeoutNanos) + " expired"));
+
+        int seconds = (int) Math.min(Integer.MAX_VALUE, (remaining + 999_999_999L) / 1_000_000_000L);
+        if (options.getQueryTimeout() != 0 && options.getQueryTimeout() <= seconds)
+            return options;
+        return DBQueryOptions.builder(options).queryTimeout(seconds).build();
+    }
+
+    private void restoreSettings(Connection connection) {
         try {
-            conn = db.getConnection();
-            conn.setAutoCommit(false);
-        } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            if (connection.getAutoCommit() != priorAutoCommit)
+                connection.setAutoCommit(priorAutoCommit);
+            if (connection.isReadOnly() != priorReadOnly)
+                connection.setReadOnly(priorReadOnly);
+            if (connection.getTransactionIsolation() != priorIsolation)
+                connection.setTransactionIsolation(priorIsolation);
+        } catch (SQLException ignore) {
+            // the connection is closed anyway
+        }
+    }
+
+    private void release() {
+        restoreSettings(conn);
+        DBUtils.connectionSilentClose(conn);
+    }
+
+    // After a failed commit or rollback, restoring auto-commit could commit the pending work, so the work is rolled back
+    // and the connection aborted instead, which also keeps a pool from reusing it with the transaction settings.
+    private void discard() {
+        try {
+            conn.rollback();
+        } catch (SQLException ignore) {
+            // aborted below
+        }
+        try {
+            conn.abort(Runnable::run);
+        } catch (SQLException | RuntimeException ignore) {
+            // closed below
         }
+        DBUtils.connectionSilentClose(conn);
+    }
+
+    /**
+     * @return true if a statement was added to this transaction and the transaction has not been committed or rolled
+     * back yet, i.e. if the transaction currently holds a connection.
+     */
+    public boolean isActive() {
+        return conn != null && !done;
+    }
+
+    /**
+     * Use this method to change the options applied to the statements created by the subsequent calls.
+     * @param options a {@link DBQueryOptions} object, containing the options to apply.
+     */
+    public void setOptions(DBQueryOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @return the {@link DBQueryOptions} applied to the statements.
+     */
+    public DBQueryOptions getOptions() {
+        return options;
     }
 
     /**
@@ -37,9 +194,9 @@ public class DBTransaction {
         int count;
 
         try {
-            count = DBUtils.processUpdate(conn, query, querySetup);
+            count = DBUtils.processUpdate(connection(), statementOptions(), query, querySetup);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
 
         return count;
@@ -59,9 +216,9 @@ public class DBTransaction {
         long id;
 
         try {
-            id = DBUtils.createRecord(conn, query, querySetup);
+            id = DBUtils.createRecord(connection(), statementOptions(), query, querySetup);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
 
         return id;
@@ -77,9 +234,9 @@ public class DBTransaction {
      */
     public void addQuery(String query, DBQuerySetup querySetup, DBQueryProcess queryProcess) {
         try {
-            DBUtils.processQuery(conn, query, querySetup, queryProcess);
+            DBUtils.processQuery(connection(), statementOptions(), query, querySetup, queryProcess);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
     }
 
@@ -91,9 +248,9 @@ public class DBTransaction {
      */
     public void addQuery(String query, DBQueryProcess queryProcess) {
         try {
-            DBUtils.processQuery(conn, query, queryProcess);
+            DBUtils.processQuery(connection(), statementOptions(), query, queryProcess);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
     }
 
@@ -110,9 +267,9 @@ public class DBTransaction {
         T data;
 
         try {
-            data = DBUtils.processQuery(conn, query, querySetup, queryRetrieveData);
+            data = DBUtils.processQuery(connection(), statementOptions(), query, querySetup, queryRetrieveData);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
 
         return data;
@@ -130,9 +287,9 @@ public class DBTransaction {
         T data;
 
         try {
-            data = DBUtils.processQuery(conn, query, queryRetrieveData);
+            data = DBUtils.processQuery(connection(), statementOptions(), query, queryRetrieveData);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
 
         return data;
@@ -145,9 +302,9 @@ public class DBTransaction {
      */
     public void addUpdates(String query, DBUpdates updates) {
         try {
-            DBUtils.processUpdates(conn, query, updates);
+            DBUtils.processUpdates(connection(), statementOptions(), query, updates);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
     }
 
@@ -163,9 +320,9 @@ public class DBTransaction {
         T data;
 
         try {
-            data = DBUtils.processQueries(conn, query, queries);
+            data = DBUtils.processQueries(connection(), statementOptions(), query, queries);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
 
         return data;
@@ -179,38 +336,281 @@ public class DBTransaction {
      */
     public void addQueries(String query, DBQueriesNoReturn queries) {
         try {
-            DBUtils.processQueries(conn, query, queries);
+            DBUtils.processQueries(connection(), statementOptions(), query, queries);
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        }
+    }
+
+    /**
+     * Use this method to apply the same update to many items using JDBC batches.
+     * @param query SQL query.
+     * @param items the items to be processed, one update per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters for each item.
+     * @param batchSize maximum number of updates sent to the database at once.
+     * @param <T> type of the items.
+     * @return the number of database rows affected by each update, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBTransaction#addBatch(String, Stream, DBBatchSetup, int)
+     */
+    public <T> int[] addBatch(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        int[] counts;
+
+        try {
+            counts = DBUtils.processBatch(connection(), statementOptions(), query, items, batchSetup, batchSize);
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Use this method to apply the same update to many items using JDBC batches.
+     * @param query SQL query.
+     * @param items the items to be processed, one update per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters for each item.
+     * @param batchSize maximum number of updates sent to the database at once.
+     * @param <T> type of the items.
+     * @return the number of database rows affected by each update, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @see DBTransaction#addBatch(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> int[] addBatch(String query, Stream<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        return addBatch(query, (Iterable<T>) items::iterator, batchSetup, batchSize);
+    }
+
+    /**
+     * Use this method to insert many new rows in the database using JDBC batches and obtain their IDs.
+     * The JDBC driver must support retrieving generated keys after a batch update.
+     * @param query SQL query used to insert a row.
+     * @param items the items to be inserted, one row per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the data used in the query for each item.
+     * @param batchSize maximum number of rows sent to the database at once.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if an insert does not affect exactly one row or if the driver does not return one id per row.
+     * @see DBTransaction#addRecordCreations(String, Stream, DBBatchSetup, int)
+     */
+    public <T> long[] addRecordCreations(String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        long[] ids;
+
+        try {
+            ids = DBUtils.createRecords(connection(), statementOptions(), query, items, batchSetup, batchSize);
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Use this method to insert many new rows in the database using JDBC batches and obtain their IDs.
+     * @param query SQL query used to insert a row.
+     * @param items the items to be inserted, one row per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to setup the data used in the query for each item.
+     * @param batchSize maximum number of rows sent to the database at once.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if an insert does not affect exactly one row or if the driver does not return one id per row.
+     * @see DBTransaction#addRecordCreations(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long[] addRecordCreations(String query, Stream<T> items, DBBatchSetup<T> batchSetup, int batchSize) {
+        return addRecordCreations(query, (Iterable<T>) items::iterator, batchSetup, batchSize);
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT ... VALUES (...), (...) statements, for drivers that send
+     * JDBC batches as one statement per row.
+     * @param query single-row INSERT query, whose parameters are all in the VALUES tuple.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters of each item,
+     *                 with the parameter indexes of the single-row query.
+     * @param maxParameters maximum number of parameters of a statement supported by the driver.
+     * @param <T> type of the items.
+     * @return the number of rows inserted.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES tuple only.
+     * @see DBAccess#processMultiRowInsert(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long addMultiRowInsert(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        long rows;
+
+        try {
+            rows = DBUtils.processMultiRowInsert(connection(), statementOptions(), query, items, rowSetup, maxParameters);
+        } catch (SQLException ex) {
+            throw DBDeadline.wrap(ex);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Use this method to insert many rows with multi-row INSERT ... VALUES (...), (...) statements and obtain their IDs.
+     * @param query single-row INSERT query, whose parameters are all in the VALUES tuple.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to setup the parameters of each item,
+     *                 with the parameter indexes of the single-row query.
+     * @param maxParameters maximum number of parameters of a statement supported by the driver.
+     * @param <T> type of the items.
+     * @return the ids of the newly created rows, in the order of the items.
+     * @throws SQLRuntimeException if an SQLException is thrown during database access, it will be rethrown as a SQLRuntimeException.
+     * @throws IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES tuple only,
+     * or if the driver does not return one id per row.
+     * @see DBAccess#createMultiRowRecords(String, Iterable, DBBatchSetup, int)
+     */
+    public <T> long[] addMultiRowRecordCreations(String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) {
+        long[] ids;
+
+        try {
+            ids = DBUtils.createMultiRowRecords(connection(), statementOptions(), query, items, rowSetup, maxParameters);
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         }
+
+        return ids;
     }
 
     /**
      * Use this function to commit the changes to the database, once your are done setting up the transaction with this class other functions.
+     * Does nothing if no statement was added to the transaction. If the commit fails, the changes are rolled back and the
+     * connection is aborted rather than reused.
+     * @throws IllegalStateException if the transaction was already committed or rolled back.
      */
     public void commit() {
+        if (done)
+            throw new IllegalStateException("Transaction already committed or rolled back");
+        done = true;
+        if (conn == null)
+            return;
+
+        boolean committed = false;
         try {
             conn.commit();
-            conn.close();
+            committed = true;
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
-            DBUtils.connectionSilentClose(conn);
+            if (committed)
+                release();
+            else
+                discard();
         }
     }
 
     /**
      * Roll back all changes previously set up via this class other functions.
+     * Does nothing if no statement was added to the transaction, or if the transaction was already committed or rolled back.
      */
     public void rollback() {
+        if (done)
+            return;
+        done = true;
+        if (conn == null)
+            return;
+
+        boolean rolledBack = false;
         try {
             conn.rollback();
-            conn.close();
+            rolledBack = true;
         } catch (SQLException ex) {
-            throw new SQLRuntimeException(ex);
+            throw DBDeadline.wrap(ex);
         } finally {
-            DBUtils.connectionSilentClose(conn);
+            if (rolledBack)
+                release();
+            else
+                discard();
         }
     }
 
+    /**
+     * Rolls back the transaction and releases its connection, unless it was already committed or rolled back.
+     * @see DBTransaction#rollback()
+     */
+    @Override
+    public void close() {
+        rollback();
+    }
+
+
+
+    /**
+     * Builder class to configure a {@link DBTransaction}.
+     */
+    public static class Builder {
+
+        private final DB db;
+        private DBQueryOptions options = DBQueryOptions.DEFAULT;
+        private boolean readOnly;
+        private int isolation = Connection.TRANSACTION_NONE;
+        private Duration timeout;
+
+        private Builder(DB db) {
+            if (db == null)
+                throw new NullPointerException("db");
+            this.db = db;
+        }
+
+        /**
+         * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+         * @return this builder.
+         */
+        public Builder options(DBQueryOptions options) {
+            if (options == null)
+                throw new NullPointerException("options");
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * A read-only transaction marks its connection read-only so that the driver and the database can avoid locks and
+         * undo. Like any transaction, it obtains its connection with {@link DB#getConnection()}, so that it sees the
+         * changes made by the current thread even when a {@link DBReplicated} replica lags.
+         * @param readOnly true for a read-only transaction, default false.
+         * @return this builder.
+         */
+        public Builder readOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        /**
+         * @param isolation one of the Connection.TRANSACTION_* isolation levels, or Connection.TRANSACTION_NONE (the
+         *                  default) to keep the isolation level of the connection.
+         * @return this builder.
+         */
+        public Builder isolation(int isolation) {
+            if (isolation != Connection.TRANSACTION_NONE
+                    && isolation != Connection.TRANSACTION_READ_UNCOMMITTED
+                    && isolation != Connection.TRANSACTION_READ_COMMITTED
+                    && isolation != Connection.TRANSACTION_REPEATABLE_READ
+                    && isolation != Connection.TRANSACTION_SERIALIZABLE)
+                throw new IllegalArgumentException("Invalid isolation level: " + isolation);
+            this.isolation = isolation;
+            return this;
+        }
+
+        /**
+         * Limits the time the statements of the transaction may take, from the first statement on. Each statement is
+         * given the remaining time as query timeout, rounded up to the second, and statements added once the time is
+         * up fail with a SQLRuntimeException caused by a SQLTimeoutException. Commit and rollback are not limited.
+         * @param timeout maximum duration of the transaction, or null for no limit (the default).
+         * @return this builder.
+         */
+        public Builder timeout(Duration timeout) {
+            if (timeout != null && (timeout.isNegative() || timeout.isZero()))
+                throw new IllegalArgumentException("timeout must be positive: " + timeout);
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBTransaction}.
+         */
+        public DBTransaction build() {
+            return new DBTransaction(this);
+        }
+    }
 }
@@ -6,14 +6,28 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
 /**
  * This class contains static utility methods to help manage various aspects of JDBC programming.
  *
  * You usually don't need to call these method directly. Instead you would use an instance of the
  * {@link DBAccess} or the {@link DBTransaction} class (which call these function internally).
+ *
+ * When the connection comes from a {@link DBPooled} instance with statement caching enabled, closing the
+ * PreparedStatements created by these methods returns them to the cache of the connection instead of closing them.
  */
 public class DBUtils {
 
+    /**
+     * Maximum number of parameters of the statements created by multi-row inserts when none is specified. It stays
+     * below the limit of SQL Server (2100 parameters), the lowest of the common databases.
+     */
+    public static final int DEFAULT_MAX_INSERT_PARAMETERS = 2000;
+
     /**
      * Close a PreparedStatement discarding any thrown SQLException.
      * @param stat the PreparedStatement to be closed.
@@ -45,17 +59,40 @@ public class DBUtils {
      * @throws SQLException if a database error occurs
      */
     public static int processUpdate(Connection conn, String query, DBQuerySetup querySetup) throws SQLException {
+        return processUpdate(conn, DBQueryOptions.DEFAULT, query, querySetup);
+    }
+
+    /**
+     * Process a database update.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up the parameters for the update.
+     * @return how many table rows were affected by the update.
+     * @throws SQLException if a database error occurs
+     */
+    public static int processUpdate(Connection conn, DBQueryOptions options, String query, DBQuerySetup querySetup) throws SQLException {
         int count;
 
-        PreparedStatement stat = conn.prepareStatement(query);
+        DBExecution execution = DBExecution.start(DBOperation.UPDATE, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
-            querySetup.setupPreparedStatement(stat);
+            cancellation = DBDeadline.arm(stat);
+            querySetup.setupPreparedStatement(execution.capture(stat));
+            execution.prepared();
             count = stat.executeUpdate();
+            execution.executed();
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
 
+        execution.completed(count);
         return count;
     }
 
@@ -69,22 +106,46 @@ public class DBUtils {
      * @throws java.lang.IllegalArgumentException if not exactly one row is created.
      */
     public static long createRecord(Connection conn, String query, DBQuerySetup querySetup) throws SQLException {
+        return createRecord(conn, DBQueryOptions.DEFAULT, query, querySetup);
+    }
+
+    /**
+     * Creates a new record in the database.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up the parameters for the record creation.
+     * @return the id of the created record.
+     * @throws SQLException if a database error occurs
+     * @throws java.lang.IllegalArgumentException if not exactly one row is created.
+     */
+    public static long createRecord(Connection conn, DBQueryOptions options, String query, DBQuerySetup querySetup) throws SQLException {
         long id;
 
-        PreparedStatement stat = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+        DBExecution execution = DBExecution.start(DBOperation.RECORD_CREATION, query);
+        PreparedStatement stat = prepareRecordCreationStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
-            querySetup.setupPreparedStatement(stat);
+            cancellation = DBDeadline.arm(stat);
+            querySetup.setupPreparedStatement(execution.capture(stat));
+            execution.prepared();
             int count = stat.executeUpdate();
+            execution.executed();
             if (count != 1)
                 throw new IllegalArgumentException("Record creation query did not affect a single row. Rows affected: " + count + ".");
             ResultSet rs = stat.getGeneratedKeys();
             rs.next();
             id = rs.getLong(1);
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
 
+        execution.completed(1);
         return id;
     }
 
@@ -98,15 +159,40 @@ public class DBUtils {
      * @see DBUtils#processQuery(java.sql.Connection, String, DBQueryProcess)
      */
     public static void processQuery(Connection conn, String query, DBQuerySetup querySetup, DBQueryProcess queryProcess) throws SQLException {
-        PreparedStatement stat = conn.prepareStatement(query);
+        processQuery(conn, DBQueryOptions.DEFAULT, query, querySetup, queryProcess);
+    }
+
+    /**
+     * Process a query on the database.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up parameters for the query.
+     * @param queryProcess an object implementing the {@link DBQueryProcess} interface, used to process results from the query.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processQuery(java.sql.Connection, String, DBQueryProcess)
+     */
+    public static void processQuery(Connection conn, DBQueryOptions options, String query, DBQuerySetup querySetup, DBQueryProcess queryProcess) throws SQLException {
+        DBExecution execution = DBExecution.start(DBOperation.QUERY, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
-            querySetup.setupPreparedStatement(stat);
+            cancellation = DBDeadline.arm(stat);
+            querySetup.setupPreparedStatement(execution.capture(stat));
+            execution.prepared();
             ResultSet rs = stat.executeQuery();
+            execution.executed();
             queryProcess.processResultSet(rs);
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
+
+        execution.completed(-1);
     }
 
     /**
@@ -118,14 +204,38 @@ public class DBUtils {
      * @see DBUtils#processQuery(java.sql.Connection, String, DBQuerySetup, DBQueryProcess)
      */
     public static void processQuery(Connection conn, String query, DBQueryProcess queryProcess) throws SQLException {
-        PreparedStatement stat = conn.prepareStatement(query);
+        processQuery(conn, DBQueryOptions.DEFAULT, query, queryProcess);
+    }
+
+    /**
+     * Process a query on the database.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param queryProcess an object implementing the {@link DBQueryProcess} interface, used to process results from the query.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processQuery(java.sql.Connection, String, DBQuerySetup, DBQueryProcess)
+     */
+    public static void processQuery(Connection conn, DBQueryOptions options, String query, DBQueryProcess queryProcess) throws SQLException {
+        DBExecution execution = DBExecution.start(DBOperation.QUERY, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
             ResultSet rs = stat.executeQuery();
+            execution.executed();
             queryProcess.processResultSet(rs);
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
+
+        execution.completed(-1);
     }
 
     /**
@@ -140,18 +250,44 @@ public class DBUtils {
      * @see DBUtils#processQuery(java.sql.Connection, String, DBQueryRetrieveData)
      */
     public static <T> T processQuery(Connection conn, String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData) throws SQLException {
+        return processQuery(conn, DBQueryOptions.DEFAULT, query, querySetup, queryRetrieveData);
+    }
+
+    /**
+     * Process a query on the database.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up parameters for the query.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, used to get the query result.
+     * @param <T> type of query result.
+     * @return result of the query.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processQuery(java.sql.Connection, String, DBQueryRetrieveData)
+     */
+    public static <T> T processQuery(Connection conn, DBQueryOptions options, String query, DBQuerySetup querySetup, DBQueryRetrieveData<T> queryRetrieveData) throws SQLException {
         T data;
 
-        PreparedStatement stat = conn.prepareStatement(query);
+        DBExecution execution = DBExecution.start(DBOperation.QUERY, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
-            querySetup.setupPreparedStatement(stat);
+            cancellation = DBDeadline.arm(stat);
+            querySetup.setupPreparedStatement(execution.capture(stat));
+            execution.prepared();
             ResultSet rs = stat.executeQuery();
+            execution.executed();
             data = queryRetrieveData.processResultSet(rs);
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
 
+        execution.completed(-1);
         return data;
     }
 
@@ -166,17 +302,42 @@ public class DBUtils {
      * @see DBUtils#processQuery(java.sql.Connection, String, DBQuerySetup, DBQueryRetrieveData)
      */
     public static <T> T processQuery(Connection conn, String query, DBQueryRetrieveData<T> queryRetrieveData) throws SQLException {
+        return processQuery(conn, DBQueryOptions.DEFAULT, query, queryRetrieveData);
+    }
+
+    /**
+     * Process a query on the database.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param queryRetrieveData an object implementing the {@link DBQueryRetrieveData} interface, used to get the query result.
+     * @param <T> type of query result.
+     * @return result of the query.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processQuery(java.sql.Connection, String, DBQuerySetup, DBQueryRetrieveData)
+     */
+    public static <T> T processQuery(Connection conn, DBQueryOptions options, String query, DBQueryRetrieveData<T> queryRetrieveData) throws SQLException {
         T data;
 
-        PreparedStatement stat = conn.prepareStatement(query);
+        DBExecution execution = DBExecution.start(DBOperation.QUERY, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
             ResultSet rs = stat.executeQuery();
+            execution.executed();
             data = queryRetrieveData.processResultSet(rs);
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
 
+        execution.completed(-1);
         return data;
     }
 
@@ -188,13 +349,36 @@ public class DBUtils {
      * @throws SQLException if a database error occurs
      */
     public static void processUpdates(Connection conn, String query, DBUpdates updates) throws SQLException {
-        PreparedStatement stat = conn.prepareStatement(query);
+        processUpdates(conn, DBQueryOptions.DEFAULT, query, updates);
+    }
+
+    /**
+     * Apply some updates to the database.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param updates an object implementing the {@link DBUpdates} interface, containing the code for the updates.
+     * @throws SQLException if a database error occurs
+     */
+    public static void processUpdates(Connection conn, DBQueryOptions options, String query, DBUpdates updates) throws SQLException {
+        DBExecution execution = DBExecution.start(DBOperation.UPDATES, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
             updates.execute(stat);
+            execution.executed();
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
+
+        execution.completed(-1);
     }
 
     /**
@@ -208,16 +392,41 @@ public class DBUtils {
      * @see DBUtils#processQueries(java.sql.Connection, String, DBQueriesNoReturn)
      */
     public static <T> T processQueries(Connection conn, String query, DBQueries<T> queries) throws SQLException {
+        return processQueries(conn, DBQueryOptions.DEFAULT, query, queries);
+    }
+
+    /**
+     * Process some queries on the database and retrieve the result.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param queries an object implementing the {@link DBQueries} interface, used to get the queries result.
+     * @param <T> type of queries result.
+     * @return result of the queries.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processQueries(java.sql.Connection, String, DBQueriesNoReturn)
+     */
+    public static <T> T processQueries(Connection conn, DBQueryOptions options, String query, DBQueries<T> queries) throws SQLException {
         T data;
 
-        PreparedStatement stat = conn.prepareStatement(query);
+        DBExecution execution = DBExecution.start(DBOperation.QUERIES, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
             data = queries.process(stat);
+            execution.executed();
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
 
+        execution.completed(-1);
         return data;
     }
 
@@ -230,12 +439,508 @@ public class DBUtils {
      * @see DBUtils#processQueries(java.sql.Connection, String, DBQueries)
      */
     public static void processQueries(Connection conn, String query, DBQueriesNoReturn queries) throws SQLException {
-        PreparedStatement stat = conn.prepareStatement(query);
+        processQueries(conn, DBQueryOptions.DEFAULT, query, queries);
+    }
+
+    /**
+     * Process some queries on the database and retrieve the result.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param queries an object implementing the {@link DBQueriesNoReturn} interface, used to get the queries result.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processQueries(java.sql.Connection, String, DBQueries)
+     */
+    public static void processQueries(Connection conn, DBQueryOptions options, String query, DBQueriesNoReturn queries) throws SQLException {
+        DBExecution execution = DBExecution.start(DBOperation.QUERIES, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
         try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
             queries.process(stat);
+            execution.executed();
+            stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
+        } finally {
+            DBDeadline.disarm(cancellation);
+            preparedStatementSilentClose(stat);
+        }
+
+        execution.completed(-1);
+    }
+
+    /**
+     * Apply a batch of updates to the database, one for each item, sending them in chunks of at most batchSize updates.
+     * @param conn database connection to use.
+     * @param query SQL query.
+     * @param items the items to be processed, one update per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param batchSize maximum number of updates sent to the database in a single executeBatch() call.
+     * @param <T> type of the items.
+     * @return the update counts of all the updates, in the order of the items.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#createRecords(java.sql.Connection, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> int[] processBatch(Connection conn, String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) throws SQLException {
+        return processBatch(conn, DBQueryOptions.DEFAULT, query, items, batchSetup, batchSize);
+    }
+
+    /**
+     * Apply a batch of updates to the database, one for each item, sending them in chunks of at most batchSize updates.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param items the items to be processed, one update per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param batchSize maximum number of updates sent to the database in a single executeBatch() call.
+     * @param <T> type of the items.
+     * @return the update counts of all the updates, in the order of the items.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#createRecords(java.sql.Connection, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> int[] processBatch(Connection conn, DBQueryOptions options, String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) throws SQLException {
+        checkBatchSize(batchSize);
+
+        int[] counts = new int[16];
+        int total = 0;
+
+        DBExecution execution = DBExecution.start(DBOperation.BATCH, query);
+        PreparedStatement stat = prepareStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
+        try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
+            int pending = 0;
+            for (T item : items) {
+                batchSetup.setupPreparedStatement(stat, item);
+                stat.addBatch();
+                if (++pending == batchSize) {
+                    counts = appendCounts(counts, total, stat.executeBatch());
+                    total += pending;
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                counts = appendCounts(counts, total, stat.executeBatch());
+                total += pending;
+            }
+            execution.executed();
             stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
         } finally {
+            DBDeadline.disarm(cancellation);
             preparedStatementSilentClose(stat);
         }
+
+        execution.completed(sumCounts(counts, total));
+        return Arrays.copyOf(counts, total);
+    }
+
+    /**
+     * Creates new records in the database, one for each item, sending them in chunks of at most batchSize inserts.
+     * The JDBC driver must support retrieving generated keys after executeBatch().
+     * @param conn database connection to use.
+     * @param query SQL query.
+     * @param items the items to be inserted, one record per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param batchSize maximum number of inserts sent to the database in a single executeBatch() call.
+     * @param <T> type of the items.
+     * @return the ids of the created records, in the order of the items.
+     * @throws SQLException if a database error occurs
+     * @throws java.lang.IllegalArgumentException if an insert does not create exactly one row or if the driver does not return one key per row.
+     * @see DBUtils#processBatch(java.sql.Connection, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> long[] createRecords(Connection conn, String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) throws SQLException {
+        return createRecords(conn, DBQueryOptions.DEFAULT, query, items, batchSetup, batchSize);
+    }
+
+    /**
+     * Creates new records in the database, one for each item, sending them in chunks of at most batchSize inserts.
+     * The JDBC driver must support retrieving generated keys after executeBatch().
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param items the items to be inserted, one record per item.
+     * @param batchSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param batchSize maximum number of inserts sent to the database in a single executeBatch() call.
+     * @param <T> type of the items.
+     * @return the ids of the created records, in the order of the items.
+     * @throws SQLException if a database error occurs
+     * @throws java.lang.IllegalArgumentException if an insert does not create exactly one row or if the driver does not return one key per row.
+     * @see DBUtils#processBatch(java.sql.Connection, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> long[] createRecords(Connection conn, DBQueryOptions options, String query, Iterable<T> items, DBBatchSetup<T> batchSetup, int batchSize) throws SQLException {
+        checkBatchSize(batchSize);
+
+        long[] ids = new long[16];
+        int total = 0;
+
+        DBExecution execution = DBExecution.start(DBOperation.RECORD_CREATIONS, query);
+        PreparedStatement stat = prepareRecordCreationStatement(conn, query, options, execution);
+        DBDeadline.Cancellation cancellation = null;
+        try {
+            cancellation = DBDeadline.arm(stat);
+            execution.prepared();
+            int pending = 0;
+            for (T item : items) {
+                batchSetup.setupPreparedStatement(stat, item);
+                stat.addBatch();
+                if (++pending == batchSize) {
+                    ids = executeRecordCreationBatch(stat, ids, total, pending);
+                    total += pending;
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                ids = executeRecordCreationBatch(stat, ids, total, pending);
+                total += pending;
+            }
+            execution.executed();
+            stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
+        } finally {
+            DBDeadline.disarm(cancellation);
+            preparedStatementSilentClose(stat);
+        }
+
+        execution.completed(total);
+        return Arrays.copyOf(ids, total);
+    }
+
+    /**
+     * Inserts one row per item using multi-row INSERT ... VALUES (...), (...) statements of at most
+     * {@link DBUtils#DEFAULT_MAX_INSERT_PARAMETERS} parameters.
+     * @param conn database connection to use.
+     * @param query single-row INSERT query.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param <T> type of the items.
+     * @return the number of rows inserted.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#processMultiRowInsert(java.sql.Connection, DBQueryOptions, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> long processMultiRowInsert(Connection conn, String query, Iterable<T> items, DBBatchSetup<T> rowSetup) throws SQLException {
+        return processMultiRowInsert(conn, DBQueryOptions.DEFAULT, query, items, rowSetup, DEFAULT_MAX_INSERT_PARAMETERS);
+    }
+
+    /**
+     * Inserts one row per item using multi-row INSERT ... VALUES (...), (...) statements, for drivers sending batches
+     * as one statement per row. The query is a single-row INSERT ... VALUES (?, ...) whose parameters are all in the
+     * VALUES tuple; it is rewritten to insert 1, 4, 16, 64, 256 or 1024 rows at once, so that only a few different
+     * statements are prepared and a statement cache can reuse them. No statement has more than maxParameters parameters.
+     * The rowSetup sets the parameters of one row with the indexes of the single-row query.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatements.
+     * @param query single-row INSERT query.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param maxParameters maximum number of parameters of a statement supported by the driver, for instance 2100 for
+     *                      SQL Server or 65535 for PostgreSQL and MySQL.
+     * @param <T> type of the items.
+     * @return the number of rows inserted.
+     * @throws SQLException if a database error occurs
+     * @throws java.lang.IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES tuple only.
+     * @see DBUtils#createMultiRowRecords(java.sql.Connection, DBQueryOptions, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> long processMultiRowInsert(Connection conn, DBQueryOptions options, String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) throws SQLException {
+        return multiRowInsert(conn, options, query, items, rowSetup, maxParameters, null);
+    }
+
+    /**
+     * Inserts one row per item using multi-row INSERT ... VALUES (...), (...) statements of at most
+     * {@link DBUtils#DEFAULT_MAX_INSERT_PARAMETERS} parameters, and returns the generated keys.
+     * @param conn database connection to use.
+     * @param query single-row INSERT query.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param <T> type of the items.
+     * @return the ids of the created records, in the order of the items.
+     * @throws SQLException if a database error occurs
+     * @see DBUtils#createMultiRowRecords(java.sql.Connection, DBQueryOptions, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> long[] createMultiRowRecords(Connection conn, String query, Iterable<T> items, DBBatchSetup<T> rowSetup) throws SQLException {
+        return createMultiRowRecords(conn, DBQueryOptions.DEFAULT, query, items, rowSetup, DEFAULT_MAX_INSERT_PARAMETERS);
+    }
+
+    /**
+     * Inserts one row per item using multi-row INSERT ... VALUES (...), (...) statements, and returns the generated keys.
+     * The JDBC driver must support retrieving the generated keys of a multi-row insert.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatements.
+     * @param query single-row INSERT query.
+     * @param items the items to be inserted, one row per item.
+     * @param rowSetup an object implementing the {@link DBBatchSetup} interface, used to set up the parameters for each item.
+     * @param maxParameters maximum number of parameters of a statement supported by the driver.
+     * @param <T> type of the items.
+     * @return the ids of the created records, in the order of the items.
+     * @throws SQLException if a database error occurs
+     * @throws java.lang.IllegalArgumentException if the query is not a single-row INSERT with parameters in its VALUES
+     * tuple only, if a statement does not create one row per item or if the driver does not return one key per row.
+     * @see DBUtils#processMultiRowInsert(java.sql.Connection, DBQueryOptions, String, Iterable, DBBatchSetup, int)
+     */
+    public static <T> long[] createMultiRowRecords(Connection conn, DBQueryOptions options, String query, Iterable<T> items, DBBatchSetup<T> rowSetup, int maxParameters) throws SQLException {
+        GeneratedKeys keys = new GeneratedKeys();
+        multiRowInsert(conn, options, query, items, rowSetup, maxParameters, keys);
+        return Arrays.copyOf(keys.ids, keys.count);
+    }
+
+    private static <T> long multiRowInsert(Connection conn, DBQueryOptions options, String query, Iterable<T> items, DBBatchSetup<T> rowSetup,
+                                           int maxParameters, GeneratedKeys keys) throws SQLException
+    {
+        DBMultiRowInsert insert = DBMultiRowInsert.of(query, maxParameters);
+        PreparedStatement[] statements = new PreparedStatement[insert.getBucketCount()];
+        DBMultiRowInsert.RowStatement[] rowStatements = new DBMultiRowInsert.RowStatement[insert.getBucketCount()];
+        long rows = 0;
+
+        DBExecution execution = DBExecution.start(keys == null ? DBOperation.BATCH : DBOperation.RECORD_CREATIONS, query);
+        try {
+            int maxRows = insert.getMaxRows();
+            List<T> pending = new ArrayList<>(Math.min(maxRows, 64));
+            for (T item : items) {
+                pending.add(item);
+                if (pending.size() == maxRows) {
+                    rows += insertRows(conn, options, insert, insert.getBucketCount() - 1, statements, rowStatements, pending, 0, rowSetup, keys, execution);
+                    pending.clear();
+                }
+            }
+            int inserted = 0;
+            while (inserted < pending.size()) {
+                int bucket = insert.bucketFor(pending.size() - inserted);
+                rows += insertRows(conn, options, insert, bucket, statements, rowStatements, pending, inserted, rowSetup, keys, execution);
+                inserted += insert.getRows(bucket);
+            }
+            execution.executed();
+            for (PreparedStatement stat : statements)
+                if (stat != null)
+                    stat.close();
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
+        } finally {
+            for (PreparedStatement stat : statements)
+                preparedStatementSilentClose(stat);
+        }
+
+        execution.completed(rows);
+        return rows;
+    }
+
+    private static <T> int insertRows(Connection conn, DBQueryOptions options, DBMultiRowInsert insert, int bucket,
+                                      PreparedStatement[] statements, DBMultiRowInsert.RowStatement[] rowStatements,
+                                      List<T> items, int from, DBBatchSetup<T> rowSetup, GeneratedKeys keys,
+                                      DBExecution execution) throws SQLException
+    {
+        PreparedStatement stat = statements[bucket];
+        if (stat == null) {
+            boolean firstStatement = true;
+            for (PreparedStatement prepared : statements)
+                if (prepared != null)
+                    firstStatement = false;
+
+            String bucketQuery = insert.getQuery(bucket);
+            if (keys == null)
+                stat = prepareStatement(conn, bucketQuery, options, execution);
+            else
+                stat = prepareRecordCreationStatement(conn, bucketQuery, options, execution);
+            statements[bucket] = stat;
+            rowStatements[bucket] = insert.rowStatement(stat);
+            // buckets are prepared lazily, so only the preparation of the first one is timed as such
+            if (firstStatement)
+                execution.prepared();
+        }
+
+        int rows = insert.getRows(bucket);
+        DBMultiRowInsert.RowStatement rowStatement = rowStatements[bucket];
+        for (int i = 0; i < rows; ++i)
+            rowSetup.setupPreparedStatement(rowStatement.setRow(i), items.get(from + i));
+        int count;
+        DBDeadline.Cancellation cancellation = DBDeadline.arm(stat);
+        try {
+            count = stat.executeUpdate();
+        } finally {
+            DBDeadline.disarm(cancellation);
+        }
+
+        if (keys != null) {
+            if (count != rows)
+                throw new IllegalArgumentException("Multi-row insert of " + rows + " records affected " + count + " rows.");
+            keys.read(stat, rows);
+        }
+
+        return count;
+    }
+
+    /**
+     * Execute a query and return a lazy Stream of its rows, read from a forward-only, read-only ResultSet.
+     * The stream must be closed after use; this closes the ResultSet and the PreparedStatement but not the connection.
+     * Rows are read from the ResultSet as the stream is consumed, so the connection must stay open until then.
+     * @param conn database connection to use.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up parameters for the query.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row of the result.
+     * @param fetchSize number of rows the driver should fetch from the database at once, 0 for the driver default.
+     * @param <T> type of the stream elements.
+     * @return a Stream of the query results.
+     * @throws SQLException if a database error occurs while executing the query; errors occurring while reading the
+     * rows are rethrown as SQLRuntimeExceptions.
+     */
+    public static <T> Stream<T> stream(Connection conn, String query, DBQuerySetup querySetup, DBRowMapper<T> rowMapper, int fetchSize) throws SQLException {
+        return stream(conn, DBQueryOptions.builder().fetchSize(fetchSize).build(), query, querySetup, rowMapper);
+    }
+
+    /**
+     * Execute a query and return a lazy Stream of its rows, read from a forward-only, read-only ResultSet whatever
+     * cursor options are specified. The stream must be closed after use; this closes the ResultSet and the
+     * PreparedStatement but not the connection.
+     * @param conn database connection to use.
+     * @param options options applied to the PreparedStatement.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to set up parameters for the query.
+     * @param rowMapper an object implementing the {@link DBRowMapper} interface, used to convert each row of the result.
+     * @param <T> type of the stream elements.
+     * @return a Stream of the query results.
+     * @throws SQLException if a database error occurs while executing the query; errors occurring while reading the
+     * rows are rethrown as SQLRuntimeExceptions.
+     */
+    public static <T> Stream<T> stream(Connection conn, DBQueryOptions options, String query, DBQuerySetup querySetup, DBRowMapper<T> rowMapper) throws SQLException {
+        return DBResultStream.open(conn, false, options, query, querySetup, rowMapper);
+    }
+
+    /**
+     * Prepare a statement applying the specified options.
+     * @param conn database connection to use.
+     * @param query SQL query.
+     * @param options options applied to the PreparedStatement.
+     * @return a new PreparedStatement.
+     * @throws SQLException if a database error occurs
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String query, DBQueryOptions options) throws SQLException {
+        PreparedStatement stat;
+        if (options.hasCursorOptions()) {
+            int resultSetType = options.getResultSetType() == 0 ? ResultSet.TYPE_FORWARD_ONLY : options.getResultSetType();
+            int resultSetConcurrency = options.getResultSetConcurrency() == 0 ? ResultSet.CONCUR_READ_ONLY : options.getResultSetConcurrency();
+            stat = conn.prepareStatement(query, resultSetType, resultSetConcurrency);
+        } else
+            stat = conn.prepareStatement(query);
+
+        return applyOptions(stat, options);
+    }
+
+    private static PreparedStatement prepareStatement(Connection conn, String query, DBQueryOptions options, DBExecution execution) throws SQLException {
+        try {
+            return prepareStatement(conn, query, options);
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
+        }
+    }
+
+    private static PreparedStatement prepareRecordCreationStatement(Connection conn, String query, DBQueryOptions options, DBExecution execution) throws SQLException {
+        try {
+            return applyOptions(conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS), options);
+        } catch (SQLException | RuntimeException ex) {
+            execution.failed(ex);
+            throw ex;
+        }
+    }
+
+    private static PreparedStatement applyOptions(PreparedStatement stat, DBQueryOptions options) throws SQLException {
+        if (options.isDefault())
+            return stat;
+
+        try {
+            if (options.getFetchSize() != 0)
+                stat.setFetchSize(options.getFetchSize());
+            if (options.getMaxRows() != 0)
+                stat.setMaxRows(options.getMaxRows());
+            if (options.getQueryTimeout() != 0)
+                stat.setQueryTimeout(options.getQueryTimeout());
+        } catch (SQLException | RuntimeException ex) {
+            preparedStatementSilentClose(stat);
+            throw ex;
+        }
+
+        return stat;
+    }
+
+    private static void checkBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+    }
+
+    private static int[] appendCounts(int[] counts, int total, int[] batchCounts) {
+        if (total + batchCounts.length > counts.length)
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, total + batchCounts.length));
+        System.arraycopy(batchCounts, 0, counts, total, batchCounts.length);
+        return counts;
+    }
+
+    private static long sumCounts(int[] counts, int total) {
+        long rows = 0;
+        for (int i = 0; i < total; ++i)
+            if (counts[i] > 0)
+                rows += counts[i];
+        return rows;
+    }
+
+    private static long[] executeRecordCreationBatch(PreparedStatement stat, long[] ids, int total, int pending) throws SQLException {
+        for (int count : stat.executeBatch())
+            if (count != 1 && count != Statement.SUCCESS_NO_INFO)
+                throw new IllegalArgumentException("Record creation query did not affect a single row. Rows affected: " + count + ".");
+
+        if (total + pending > ids.length)
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, total + pending));
+
+        int retrieved = 0;
+        ResultSet rs = stat.getGeneratedKeys();
+        try {
+            while (rs.next()) {
+                if (retrieved == pending)
+                    throw new IllegalArgumentException("More generated keys than records created by batch.");
+                ids[total + retrieved++] = rs.getLong(1);
+            }
+        } finally {
+            rs.close();
+        }
+        if (retrieved != pending)
+            throw new IllegalArgumentException("Batch created " + pending + " records but only " + retrieved + " generated keys were returned.");
+
+        return ids;
+    }
+
+
+    // ids generated by the statements of a multi-row insert
+    private static final class GeneratedKeys {
+
+        private long[] ids = new long[16];
+        private int count;
+
+        void read(PreparedStatement stat, int rows) throws SQLException {
+            if (count + rows > ids.length)
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + rows));
+
+            int retrieved = 0;
+            ResultSet rs = stat.getGeneratedKeys();
+            try {
+                while (rs.next()) {
+                    if (retrieved == rows)
+                        throw new IllegalArgumentException("More generated keys than records created by multi-row insert.");
+                    ids[count + retrieved++] = rs.getLong(1);
+                }
+            } finally {
+                rs.close();
+            }
+            if (retrieved != rows)
+                throw new IllegalArgumentException("Multi-row insert created " + rows + " records but only " + retrieved + " generated keys were returned.");
+
+            count += rows;
+        }
     }
 }
@@ -0,0 +1,367 @@
+package org.dbbeans.sql;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class applies small updates asynchronously, grouping them into JDBC batches run in a single transaction.
+ *
+ * Updates are submitted from any thread into a bounded queue and written by a background thread. The writer flushes
+ * when maxBatchSize updates are pending or when the oldest pending update has waited for flushInterval. A flush groups
+ * the pending updates by SQL, in the order in which each SQL first appears, runs each group as a JDBC batch and commits
+ * once. Updates with the same SQL are applied in submission order; updates with different SQL may be reordered within
+ * a flush, so do not use this class for updates depending on each other.
+ *
+ * If a flush fails before committing, it is rolled back and its updates are applied one by one, so that only the
+ * failing updates fail. If the commit itself fails, all updates of the flush fail.
+ *
+ * When the queue is full, {@link DBWriteBehind#submit(String, DBQuerySetup)} blocks until there is room: producers are
+ * slowed down to the rate of the database. {@link DBWriteBehind#close()} writes all updates submitted before it and
+ * stops the background thread.
+ */
+public class DBWriteBehind implements AutoCloseable {
+
+    private static final AtomicInteger WRITER_COUNTER = new AtomicInteger();
+
+    private final DB db;
+    private final DBQueryOptions options;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+
+    private final BlockingQueue<Update> queue;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Thread writer;
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private boolean closed;
+
+    private DBWriteBehind(Builder builder) {
+        db = builder.db;
+        options = builder.options;
+        maxBatchSize = builder.maxBatchSize;
+        flushIntervalNanos = builder.flushInterval.toNanos();
+        queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+
+        writer = new Thread(this::write, "dbbeans-write-behind-" + WRITER_COUNTER.incrementAndGet());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts the configuration of a new instance.
+     * @param db a {@link DB} object to obtain connections to the database.
+     * @return a {@link Builder} to configure the instance.
+     */
+    public static Builder builder(DB db) {
+        return new Builder(db);
+    }
+
+    /**
+     * Queues an update, waiting for room in the queue if it is full.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the parameters for the
+     *                   update; it is called later, by the writer thread.
+     * @return a CompletableFuture completed with the number of database rows affected by the update once it is committed,
+     * or with Statement.SUCCESS_NO_INFO if the driver does not report it. It is completed exceptionally if the update fails.
+     * @throws IllegalStateException if this instance is closed or if the calling thread is interrupted while waiting.
+     */
+    public CompletableFuture<Integer> submit(String query, DBQuerySetup querySetup) {
+        Update update = new Update(query, querySetup);
+        closeLock.readLock().lock();
+        try {
+            checkNotClosed();
+            queue.put(update);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for room in the queue.", ex);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return update.future;
+    }
+
+    /**
+     * Queues an update if there is room in the queue.
+     * @param query SQL query.
+     * @param querySetup an object implementing the {@link DBQuerySetup} interface, used to setup the parameters for the
+     *                   update; it is called later, by the writer thread.
+     * @return a CompletableFuture as returned by {@link DBWriteBehind#submit(String, DBQuerySetup)}, or null if the queue is full.
+     * @throws IllegalStateException if this instance is closed.
+     */
+    public CompletableFuture<Integer> trySubmit(String query, DBQuerySetup querySetup) {
+        Update update = new Update(query, querySetup);
+        closeLock.readLock().lock();
+        try {
+            checkNotClosed();
+            if (!queue.offer(update))
+                return null;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return update.future;
+    }
+
+    /**
+     * Requests the immediate write of all updates submitted before this call, without waiting for the thresholds.
+     * @return a CompletableFuture completed once these updates have been written, successfully or not.
+     * @throws IllegalStateException if this instance is closed or if the calling thread is interrupted while waiting.
+     */
+    public CompletableFuture<Void> flush() {
+        return submit(null, null).thenApply(ignore -> null);
+    }
+
+    private void checkNotClosed() {
+        if (closed)
+            throw new IllegalStateException("DBWriteBehind closed.");
+    }
+
+    /**
+     * @return the number of updates waiting in the queue.
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of transactions committed or attempted.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the number of updates successfully written.
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return the number of updates that failed.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Stops accepting updates, writes all updates already submitted and waits for the background thread to stop.
+     * @throws IllegalStateException if the calling thread is interrupted while waiting.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        try {
+            queue.put(Update.STOP);
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while closing.", ex);
+        }
+    }
+
+    // runs on the writer thread
+    private void write() {
+        List<Update> pending = new ArrayList<>(maxBatchSize);
+        long oldest = 0;
+
+        while (true) {
+            Update update;
+            try {
+                if (pending.isEmpty())
+                    update = queue.take();
+                else
+                    update = queue.poll(oldest + flushIntervalNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                // only close() stops the writer
+                continue;
+            }
+
+            if (update == null) {
+                flush(pending);
+            } else if (update.query == null) {
+                flush(pending);
+                update.future.complete(0);
+                if (update == Update.STOP)
+                    return;
+            } else {
+                if (pending.isEmpty())
+                    oldest = System.nanoTime();
+                pending.add(update);
+                if (pending.size() >= maxBatchSize)
+                    flush(pending);
+            }
+        }
+    }
+
+    private void flush(List<Update> pending) {
+        if (pending.isEmpty())
+            return;
+
+        Map<String, List<Update>> bySql = new LinkedHashMap<>();
+        for (Update update : pending)
+            bySql.computeIfAbsent(update.query, sql -> new ArrayList<>()).add(update);
+        pending.clear();
+        flushCount.incrementAndGet();
+
+        DBTransaction transaction = new DBTransaction(db, options);
+        List<int[]> counts = new ArrayList<>(bySql.size());
+        try {
+            for (Map.Entry<String, List<Update>> group : bySql.entrySet())
+                counts.add(transaction.addBatch(group.getKey(), group.getValue(),
+                        (stat, update) -> update.querySetup.setupPreparedStatement(stat), maxBatchSize));
+        } catch (RuntimeException ex) {
+            try {
+                transaction.rollback();
+            } catch (RuntimeException ignore) {
+                // the updates are retried on another connection
+            }
+            writeOneByOne(bySql);
+            return;
+        }
+
+        try {
+            transaction.commit();
+        } catch (RuntimeException ex) {
+            for (List<Update> updates : bySql.values())
+                fail(updates, ex);
+            return;
+        }
+
+        int group = 0;
+        for (List<Update> updates : bySql.values()) {
+            int[] groupCounts = counts.get(group++);
+            for (int i = 0; i < updates.size(); ++i)
+                updates.get(i).future.complete(groupCounts[i]);
+            writtenCount.addAndGet(updates.size());
+        }
+    }
+
+    private void writeOneByOne(Map<String, List<Update>> bySql) {
+        DBAccess dbAccess = new DBAccess(db, options);
+        for (List<Update> updates : bySql.values()) {
+            for (Update update : updates) {
+                try {
+                    update.future.complete(dbAccess.processUpdate(update.query, update.querySetup));
+                    writtenCount.incrementAndGet();
+                } catch (RuntimeException ex) {
+                    update.future.completeExceptionally(ex);
+                    failedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void fail(List<Update> updates, RuntimeException ex) {
+        for (Update update : updates)
+            update.future.completeExceptionally(ex);
+        failedCount.addAndGet(updates.size());
+    }
+
+
+    // an update, or a flush request when query is null
+    private static final class Update {
+
+        static final Update STOP = new Update(null, null);
+
+        final String query;
+        final DBQuerySetup querySetup;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        Update(String query, DBQuerySetup querySetup) {
+            this.query = query;
+            this.querySetup = querySetup;
+        }
+    }
+
+
+    /**
+     * Builder class to configure a {@link DBWriteBehind} instance.
+     */
+    public static class Builder {
+
+        private final DB db;
+        private DBQueryOptions options = DBQueryOptions.DEFAULT;
+        private int queueCapacity = 10_000;
+        private int maxBatchSize = 500;
+        private Duration flushInterval = Duration.ofMillis(50);
+
+        private Builder(DB db) {
+            if (db == null)
+                throw new NullPointerException("db");
+            this.db = db;
+        }
+
+        /**
+         * @param options a {@link DBQueryOptions} object, containing the options applied to every statement.
+         * @return this builder.
+         */
+        public Builder options(DBQueryOptions options) {
+            if (options == null)
+                throw new NullPointerException("options");
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity maximum number of updates waiting to be written, default 10000.
+         * @return this builder.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1)
+                throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param maxBatchSize number of pending updates triggering a flush, default 500.
+         * @return this builder.
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1)
+                throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param flushInterval maximum time an update waits for a flush, default 50 milliseconds.
+         * @return this builder.
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            if (flushInterval.isZero() || flushInterval.isNegative())
+                throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * @return a new {@link DBWriteBehind} instance, with its writer thread started.
+         */
+        public DBWriteBehind build() {
+            return new DBWriteBehind(this);
+        }
+    }
+}